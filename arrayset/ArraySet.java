@@ -2,19 +2,20 @@ package info.kgeorgiy.ja.lorents.arrayset;
 
 import java.util.*;
 
-public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
+public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
 
+    // sorted view of the backing array: all sub and descending sets share it without copying
     private final List<T> data;
     private final Comparator<? super T> comparator;
+    // optional cache-friendly copy of data for searches, absent in sub and descending sets
+    private final EytzingerIndex<T> index;
 
     public ArraySet() {
-        this.data = Collections.emptyList();
-        this.comparator = null;
+        this((Comparator<? super T>) null);
     }
 
     public ArraySet(Comparator<? super T> comparator) {
-        this.data = Collections.emptyList();
-        this.comparator = comparator;
+        this(Collections.emptyList(), comparator);
     }
 
     public ArraySet(Collection<? extends T> data) {
@@ -22,24 +23,64 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
     }
 
     public ArraySet(Collection<? extends T> data, Comparator<? super T> comparator) {
-        TreeSet<T> treeSet = new TreeSet<>(comparator);
-        treeSet.addAll(data);
-        this.data = new ArrayList<>(treeSet);
+        this(data, comparator, false);
+    }
+
+    /**
+     * Creates set, optionally with lookup index, that speeds up searches in large sets
+     * at the cost of one more array of elements and one of positions.
+     * @param data elements of set.
+     * @param comparator order of elements, {@code null} for natural order.
+     * @param lookupIndex whether to build lookup index.
+     */
+    public ArraySet(Collection<? extends T> data, Comparator<? super T> comparator, boolean lookupIndex) {
+        this.data = toSortedList(data, comparator);
         this.comparator = comparator;
+        this.index = lookupIndex ? new EytzingerIndex<>(this.data, comparator) : null;
     }
 
     private ArraySet(List<T> data, Comparator<? super T> comparator) {
         this.data = data;
         this.comparator = comparator;
+        this.index = null;
     }
 
-    private SortedSet<T> subSet(T fromElement, T toElement, boolean includeToElement) {
-        if (isItNotComparable(fromElement, toElement)) {
-            throw new IllegalArgumentException("Wrong arguments");
+    // Set over sorted list without duplicates, that is used as is
+    static <T> ArraySet<T> view(List<T> data, Comparator<? super T> comparator) {
+        return new ArraySet<>(data, comparator);
+    }
+
+    // Sorted input (checked in one pass, or known from a SortedSet with the same comparator) is not sorted again,
+    // duplicates are removed in place, keeping the first one as TreeSet does
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> toSortedList(Collection<? extends T> collection, Comparator<? super T> comparator) {
+        T[] array = (T[]) collection.toArray();
+        if (collection instanceof SortedSet && Objects.equals(((SortedSet<?>) collection).comparator(), comparator)) {
+            return Arrays.asList(array);
+        }
+        if (!isSorted(array, comparator)) {
+            Arrays.sort(array, comparator);
+        }
+        int size = 0;
+        for (T element : array) {
+            if (size == 0 || compare(comparator, array[size - 1], element) != 0) {
+                array[size++] = element;
+            }
         }
-        int leftIndex = getIndex(fromElement, 0);
-        int rightIndex = includeToElement ? getIndex(toElement, 1) : getIndex(toElement, 0);
-        return new ArraySet<>(data.subList(leftIndex, rightIndex), comparator);
+        return Arrays.asList(size == array.length ? array : Arrays.copyOf(array, size));
+    }
+
+    private static <T> boolean isSorted(T[] array, Comparator<? super T> comparator) {
+        for (int i = 1; i < array.length; i++) {
+            if (compare(comparator, array[i - 1], array[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ArraySet<T> subSet(int fromIndex, int toIndex) {
+        return new ArraySet<>(data.subList(fromIndex, Math.max(fromIndex, toIndex)), comparator);
     }
 
     @Override
@@ -57,22 +98,87 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
         return comparator;
     }
 
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+        if (compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("Wrong arguments");
+        }
+        int fromIndex = fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        int toIndex = toInclusive ? floorIndex(toElement) : lowerIndex(toElement);
+        return subSet(fromIndex, toIndex + 1);
+    }
+
+    @Override
+    public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+        return subSet(0, (inclusive ? floorIndex(toElement) : lowerIndex(toElement)) + 1);
+    }
+
+    @Override
+    public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+        return subSet(inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement), size());
+    }
+
     @Override
     public SortedSet<T> subSet(T fromElement, T toElement) {
-        return subSet(fromElement, toElement, false);
+        return subSet(fromElement, true, toElement, false);
     }
 
     @Override
     public SortedSet<T> headSet(T toElement) {
-        return (isEmpty() || isItNotComparable(first(), toElement))
-                ? new ArraySet<>(Collections.emptyList(), comparator)
-                : subSet(first(), toElement, false);
+        return headSet(toElement, false);
     }
 
     @Override
     public SortedSet<T> tailSet(T fromElement) {
-        return (isEmpty() || isItNotComparable(fromElement, last())) ? new ArraySet<>(Collections.emptyList(), comparator)
-                : subSet(fromElement, last(), true);
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public NavigableSet<T> descendingSet() {
+        return new ArraySet<>(ReversedList.reverse(data), reverseOrder(comparator));
+    }
+
+    // Like ReversedList.reverse, reversing twice gives back the original comparator, null for natural order
+    private static <T> Comparator<? super T> reverseOrder(Comparator<? super T> comparator) {
+        if (comparator == null) {
+            return Collections.reverseOrder();
+        }
+        return comparator == Collections.reverseOrder() ? null : comparator.reversed();
+    }
+
+    @Override
+    public Iterator<T> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
+    @Override
+    public T lower(T e) {
+        return getElement(lowerIndex(e));
+    }
+
+    @Override
+    public T floor(T e) {
+        return getElement(floorIndex(e));
+    }
+
+    @Override
+    public T ceiling(T e) {
+        return getElement(ceilingIndex(e));
+    }
+
+    @Override
+    public T higher(T e) {
+        return getElement(higherIndex(e));
+    }
+
+    @Override
+    public T pollFirst() {
+        throw new UnsupportedOperationException("ArraySet is immutable");
+    }
+
+    @Override
+    public T pollLast() {
+        throw new UnsupportedOperationException("ArraySet is immutable");
     }
 
     @Override
@@ -88,7 +194,7 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
     @SuppressWarnings("unchecked")
     @Override
     public boolean contains(Object e) {
-        return Collections.binarySearch(data, (T) e, comparator) >= 0;
+        return search((T) e) >= 0;
     }
 
     @Override
@@ -96,22 +202,50 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
         return size() == 0;
     }
 
-    private int getIndex(T element, int include) {
-        int index = Collections.binarySearch(data, element, comparator);
-        index = index < 0 ? index * (-1) - 1 : index;
-        return index + include;
+    // Index of the found element plus foundShift, or of the insertion point plus notFoundShift
+    private int getIndex(T element, int foundShift, int notFoundShift) {
+        int index = search(element);
+        return index >= 0 ? index + foundShift : -index - 1 + notFoundShift;
     }
 
-    @SuppressWarnings("unchecked")
-    private boolean isItNotComparable(T fromElement, T toElement) {
-        if (comparator != null) {
-            return comparator.compare(fromElement, toElement) > 0;
-        } else {
-            if (fromElement instanceof Comparable && toElement instanceof Comparable) {
-                return ((Comparable<T>) fromElement).compareTo(toElement) > 0;
-            }
+    // Same result as Collections.binarySearch
+    private int search(T element) {
+        if (index == null) {
+            return Collections.binarySearch(data, element, comparator);
         }
-        return true;
+        int position = index.lowerBound(element);
+        return position < size() && compare(data.get(position), element) == 0 ? position : -position - 1;
+    }
+
+    private int lowerIndex(T element) {
+        return getIndex(element, -1, -1);
+    }
+
+    private int floorIndex(T element) {
+        return getIndex(element, 0, -1);
+    }
+
+    private int ceilingIndex(T element) {
+        return getIndex(element, 0, 0);
+    }
+
+    private int higherIndex(T element) {
+        return getIndex(element, 1, 0);
+    }
+
+    private int compare(T fromElement, T toElement) {
+        return compare(comparator, fromElement, toElement);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> int compare(Comparator<? super T> comparator, T fromElement, T toElement) {
+        return comparator != null
+                ? comparator.compare(fromElement, toElement)
+                : ((Comparable<? super T>) fromElement).compareTo(toElement);
+    }
+
+    private T getElement(int index) {
+        return 0 <= index && index < size() ? data.get(index) : null;
     }
 
     private T getOutsideElement(int index) {
@@ -121,4 +255,3 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
         return data.get(index);
     }
 }
-
@@ -0,0 +1,67 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmark of {@link ArraySet#contains(Object)} with and without lookup index.
+ * Prints average lookup latency for set sizes from 10^3 up to given maximum.
+ */
+public class ArraySetBenchmark {
+
+    private static final String USAGE = "ArraySetBenchmark [maxSize [lookups]]";
+    private static final int MIN_SIZE = 1_000;
+    private static final int SIZE_STEP = 10;
+    private static final int ROUNDS = 5;
+
+    // Keeps results of lookups reachable, so they are not optimized away
+    private static volatile int sink;
+
+    private static double measure(ArraySet<Integer> set, Integer[] keys) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            int found = 0;
+            long start = System.nanoTime();
+            for (Integer key : keys) {
+                if (set.contains(key)) {
+                    found++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            sink = found;
+        }
+        return (double) best / keys.length;
+    }
+
+    private static int getArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments. Usage: ArraySetBenchmark [maxSize [lookups]]
+     */
+    public static void main(String[] args) {
+        final int maxSize;
+        final int lookups;
+        try {
+            maxSize = getArg(args, 0, 10_000_000);
+            lookups = getArg(args, 1, 1_000_000);
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect arguments, use: " + USAGE);
+            return;
+        }
+
+        final Random random = new Random(4875043285743285204L);
+        for (long size = MIN_SIZE; size <= maxSize; size *= SIZE_STEP) {
+            // even numbers only, so that half of lookups miss
+            final ArraySet<Integer> plain = new ArraySet<>(
+                    IntStream.range(0, (int) size).map(i -> 2 * i).boxed().collect(Collectors.toList()));
+            final ArraySet<Integer> indexed = new ArraySet<>(plain, null, true);
+            final Integer[] keys = random.ints(lookups, 0, 2 * (int) size).boxed().toArray(Integer[]::new);
+            System.out.printf("size=%-10d binary search %8.1f ns/lookup    eytzinger %8.1f ns/lookup%n",
+                    size, measure(plain, keys), measure(indexed, keys));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.Comparator;
+import java.util.List;
+
+// Copy of a sorted list in Eytzinger (breadth-first search tree) order: the first probes of every search
+// hit the same few cache lines at the beginning of the array, instead of being spread over the whole list
+class EytzingerIndex<T> {
+
+    private final Object[] tree;
+    // position of every tree node in the sorted list
+    private final int[] positions;
+    private final Comparator<? super T> comparator;
+
+    EytzingerIndex(List<T> sorted, Comparator<? super T> comparator) {
+        // nodes are numbered from 1, so children of node k are 2k and 2k + 1
+        this.tree = new Object[sorted.size() + 1];
+        this.positions = new int[sorted.size() + 1];
+        this.comparator = comparator;
+        build(sorted, 0, 1);
+    }
+
+    private int build(List<T> sorted, int index, int node) {
+        if (node < tree.length) {
+            index = build(sorted, index, 2 * node);
+            tree[node] = sorted.get(index);
+            positions[node] = index++;
+            index = build(sorted, index, 2 * node + 1);
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object element, T key) {
+        return comparator != null
+                ? comparator.compare((T) element, key)
+                : ((Comparable<? super T>) element).compareTo(key);
+    }
+
+    // Position of the first element not less than key, or size if there is no such element
+    int lowerBound(T key) {
+        int node = 1;
+        while (node < tree.length) {
+            // descend without a data-dependent branch: go right iff node is less than key
+            node = 2 * node + (compare(tree[node], key) >>> 31);
+        }
+        // drop the trailing right turns and one left turn to get the last node where search went left
+        node >>>= Integer.numberOfTrailingZeros(~node) + 1;
+        return node == 0 ? tree.length - 1 : positions[node];
+    }
+}
@@ -0,0 +1,327 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of int values, backed by int[] without boxing.
+ * {@link #contains(int)} and {@link #indexOf(int)} do not allocate,
+ * sub sets are windows of the same array and bulk operations merge arrays in linear time.
+ * Differs from {@link LongArraySet} only in element type, changes should be made to both classes.
+ */
+public class IntArraySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+
+    private final int[] data;
+    private final int from;
+    private final int to;
+
+    public IntArraySet() {
+        this(new int[0], 0, 0);
+    }
+
+    /**
+     * Creates set of given values. Sorted values are not sorted again.
+     * @param values values of set, copied.
+     */
+    public IntArraySet(int... values) {
+        int[] array = values.clone();
+        if (!isSorted(array, 0, array.length)) {
+            Arrays.sort(array);
+        }
+        int size = 0;
+        for (int value : array) {
+            if (size == 0 || array[size - 1] != value) {
+                array[size++] = value;
+            }
+        }
+        this.data = array;
+        this.from = 0;
+        this.to = size;
+    }
+
+    private IntArraySet(int[] data, int from, int to) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+    }
+
+    private static boolean isSorted(int[] array, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (array[i - 1] > array[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position of value in this set.
+     * @param value value to search.
+     * @return index of value, or {@code -(insertion point) - 1} if there is no such value.
+     */
+    public int indexOf(int value) {
+        int index = Arrays.binarySearch(data, from, to, value);
+        return index >= 0 ? index - from : index + from;
+    }
+
+    /**
+     * Checks if value is in this set.
+     * @param value value to search.
+     * @return {@code true} if this set contains value.
+     */
+    public boolean contains(int value) {
+        return Arrays.binarySearch(data, from, to, value) >= 0;
+    }
+
+    /**
+     * Value by its position in ascending order.
+     * @param index index of value.
+     * @return value with given index.
+     */
+    public int getInt(int index) {
+        Objects.checkIndex(index, size());
+        return data[from + index];
+    }
+
+    /**
+     * Values of this set in ascending order.
+     * @return new array of values.
+     */
+    public int[] toIntArray() {
+        return Arrays.copyOfRange(data, from, to);
+    }
+
+    /**
+     * Values contained in this or other set.
+     * @param other other set.
+     * @return union of sets.
+     */
+    public IntArraySet union(IntArraySet other) {
+        int[] result = new int[size() + other.size()];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to && j < other.to) {
+            if (data[i] < other.data[j]) {
+                result[size++] = data[i++];
+            } else if (data[i] > other.data[j]) {
+                result[size++] = other.data[j++];
+            } else {
+                result[size++] = data[i++];
+                j++;
+            }
+        }
+        while (i < to) {
+            result[size++] = data[i++];
+        }
+        while (j < other.to) {
+            result[size++] = other.data[j++];
+        }
+        return new IntArraySet(result, 0, size);
+    }
+
+    /**
+     * Values contained in both this and other set.
+     * @param other other set.
+     * @return intersection of sets.
+     */
+    public IntArraySet intersection(IntArraySet other) {
+        int[] result = new int[Math.min(size(), other.size())];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to && j < other.to) {
+            if (data[i] < other.data[j]) {
+                i++;
+            } else if (data[i] > other.data[j]) {
+                j++;
+            } else {
+                result[size++] = data[i++];
+                j++;
+            }
+        }
+        return new IntArraySet(result, 0, size);
+    }
+
+    /**
+     * Values contained in this set and not contained in other.
+     * @param other other set.
+     * @return difference of sets.
+     */
+    public IntArraySet difference(IntArraySet other) {
+        int[] result = new int[size()];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to) {
+            if (j == other.to || data[i] < other.data[j]) {
+                result[size++] = data[i++];
+            } else if (data[i] > other.data[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return new IntArraySet(result, 0, size);
+    }
+
+    // Ascending list view of this set, shares the array
+    private List<Integer> asList() {
+        return new ListView();
+    }
+
+    private class ListView extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            return getInt(index);
+        }
+
+        @Override
+        public int size() {
+            return IntArraySet.this.size();
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return data[index++];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains((int) o);
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return null;
+    }
+
+    // Absolute index of the found value plus foundShift, or of the insertion point plus notFoundShift
+    private int getIndex(int value, int foundShift, int notFoundShift) {
+        int index = Arrays.binarySearch(data, from, to, value);
+        return index >= 0 ? index + foundShift : -index - 1 + notFoundShift;
+    }
+
+    private Integer getElement(int index) {
+        return from <= index && index < to ? data[index] : null;
+    }
+
+    private IntArraySet window(int fromIndex, int toIndex) {
+        return new IntArraySet(data, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    @Override
+    public Integer lower(Integer e) {
+        return getElement(getIndex(e, -1, -1));
+    }
+
+    @Override
+    public Integer floor(Integer e) {
+        return getElement(getIndex(e, 0, -1));
+    }
+
+    @Override
+    public Integer ceiling(Integer e) {
+        return getElement(getIndex(e, 0, 0));
+    }
+
+    @Override
+    public Integer higher(Integer e) {
+        return getElement(getIndex(e, 1, 0));
+    }
+
+    @Override
+    public Integer pollFirst() {
+        throw new UnsupportedOperationException("IntArraySet is immutable");
+    }
+
+    @Override
+    public Integer pollLast() {
+        throw new UnsupportedOperationException("IntArraySet is immutable");
+    }
+
+    @Override
+    public Integer first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return data[from];
+    }
+
+    @Override
+    public Integer last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return data[to - 1];
+    }
+
+    @Override
+    public NavigableSet<Integer> descendingSet() {
+        return ArraySet.view(ReversedList.reverse(asList()), Collections.reverseOrder());
+    }
+
+    @Override
+    public Iterator<Integer> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, boolean fromInclusive, Integer toElement, boolean toInclusive) {
+        if (fromElement > toElement) {
+            throw new IllegalArgumentException("Wrong arguments");
+        }
+        return window(getIndex(fromElement, fromInclusive ? 0 : 1, 0), getIndex(toElement, toInclusive ? 1 : 0, 0));
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement, boolean inclusive) {
+        return window(from, getIndex(toElement, inclusive ? 1 : 0, 0));
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement, boolean inclusive) {
+        return window(getIndex(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, Integer toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement) {
+        return tailSet(fromElement, true);
+    }
+}
@@ -0,0 +1,327 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of long values, backed by long[] without boxing.
+ * {@link #contains(long)} and {@link #indexOf(long)} do not allocate,
+ * sub sets are windows of the same array and bulk operations merge arrays in linear time.
+ * Differs from {@link IntArraySet} only in element type, changes should be made to both classes.
+ */
+public class LongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+
+    private final long[] data;
+    private final int from;
+    private final int to;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0);
+    }
+
+    /**
+     * Creates set of given values. Sorted values are not sorted again.
+     * @param values values of set, copied.
+     */
+    public LongArraySet(long... values) {
+        long[] array = values.clone();
+        if (!isSorted(array, 0, array.length)) {
+            Arrays.sort(array);
+        }
+        int size = 0;
+        for (long value : array) {
+            if (size == 0 || array[size - 1] != value) {
+                array[size++] = value;
+            }
+        }
+        this.data = array;
+        this.from = 0;
+        this.to = size;
+    }
+
+    private LongArraySet(long[] data, int from, int to) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+    }
+
+    private static boolean isSorted(long[] array, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (array[i - 1] > array[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position of value in this set.
+     * @param value value to search.
+     * @return index of value, or {@code -(insertion point) - 1} if there is no such value.
+     */
+    public int indexOf(long value) {
+        int index = Arrays.binarySearch(data, from, to, value);
+        return index >= 0 ? index - from : index + from;
+    }
+
+    /**
+     * Checks if value is in this set.
+     * @param value value to search.
+     * @return {@code true} if this set contains value.
+     */
+    public boolean contains(long value) {
+        return Arrays.binarySearch(data, from, to, value) >= 0;
+    }
+
+    /**
+     * Value by its position in ascending order.
+     * @param index index of value.
+     * @return value with given index.
+     */
+    public long getLong(int index) {
+        Objects.checkIndex(index, size());
+        return data[from + index];
+    }
+
+    /**
+     * Values of this set in ascending order.
+     * @return new array of values.
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(data, from, to);
+    }
+
+    /**
+     * Values contained in this or other set.
+     * @param other other set.
+     * @return union of sets.
+     */
+    public LongArraySet union(LongArraySet other) {
+        long[] result = new long[size() + other.size()];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to && j < other.to) {
+            if (data[i] < other.data[j]) {
+                result[size++] = data[i++];
+            } else if (data[i] > other.data[j]) {
+                result[size++] = other.data[j++];
+            } else {
+                result[size++] = data[i++];
+                j++;
+            }
+        }
+        while (i < to) {
+            result[size++] = data[i++];
+        }
+        while (j < other.to) {
+            result[size++] = other.data[j++];
+        }
+        return new LongArraySet(result, 0, size);
+    }
+
+    /**
+     * Values contained in both this and other set.
+     * @param other other set.
+     * @return intersection of sets.
+     */
+    public LongArraySet intersection(LongArraySet other) {
+        long[] result = new long[Math.min(size(), other.size())];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to && j < other.to) {
+            if (data[i] < other.data[j]) {
+                i++;
+            } else if (data[i] > other.data[j]) {
+                j++;
+            } else {
+                result[size++] = data[i++];
+                j++;
+            }
+        }
+        return new LongArraySet(result, 0, size);
+    }
+
+    /**
+     * Values contained in this set and not contained in other.
+     * @param other other set.
+     * @return difference of sets.
+     */
+    public LongArraySet difference(LongArraySet other) {
+        long[] result = new long[size()];
+        int i = from;
+        int j = other.from;
+        int size = 0;
+        while (i < to) {
+            if (j == other.to || data[i] < other.data[j]) {
+                result[size++] = data[i++];
+            } else if (data[i] > other.data[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return new LongArraySet(result, 0, size);
+    }
+
+    // Ascending list view of this set, shares the array
+    private List<Long> asList() {
+        return new ListView();
+    }
+
+    private class ListView extends AbstractList<Long> implements RandomAccess {
+        @Override
+        public Long get(int index) {
+            return getLong(index);
+        }
+
+        @Override
+        public int size() {
+            return LongArraySet.this.size();
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return data[index++];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) o);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    // Absolute index of the found value plus foundShift, or of the insertion point plus notFoundShift
+    private int getIndex(long value, int foundShift, int notFoundShift) {
+        int index = Arrays.binarySearch(data, from, to, value);
+        return index >= 0 ? index + foundShift : -index - 1 + notFoundShift;
+    }
+
+    private Long getElement(int index) {
+        return from <= index && index < to ? data[index] : null;
+    }
+
+    private LongArraySet window(int fromIndex, int toIndex) {
+        return new LongArraySet(data, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    @Override
+    public Long lower(Long e) {
+        return getElement(getIndex(e, -1, -1));
+    }
+
+    @Override
+    public Long floor(Long e) {
+        return getElement(getIndex(e, 0, -1));
+    }
+
+    @Override
+    public Long ceiling(Long e) {
+        return getElement(getIndex(e, 0, 0));
+    }
+
+    @Override
+    public Long higher(Long e) {
+        return getElement(getIndex(e, 1, 0));
+    }
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException("LongArraySet is immutable");
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException("LongArraySet is immutable");
+    }
+
+    @Override
+    public Long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return data[from];
+    }
+
+    @Override
+    public Long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return data[to - 1];
+    }
+
+    @Override
+    public NavigableSet<Long> descendingSet() {
+        return ArraySet.view(ReversedList.reverse(asList()), Collections.reverseOrder());
+    }
+
+    @Override
+    public Iterator<Long> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        if (fromElement > toElement) {
+            throw new IllegalArgumentException("Wrong arguments");
+        }
+        return window(getIndex(fromElement, fromInclusive ? 0 : 1, 0), getIndex(toElement, toInclusive ? 1 : 0, 0));
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement, boolean inclusive) {
+        return window(from, getIndex(toElement, inclusive ? 1 : 0, 0));
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement, boolean inclusive) {
+        return window(getIndex(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+}
@@ -0,0 +1,257 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Immutable sorted set of long keys, stored off heap in a memory-mapped file and searched in place.
+ * File is a header (magic and number of keys) followed by ascending 8-byte little-endian keys.
+ * Opening a file only maps it, so it takes O(1) regardless of the number of keys.
+ */
+public class MappedLongArraySet extends AbstractSet<Long> implements SortedSet<Long> {
+
+    private static final long MAGIC = 0x314C_5445_5341_5241L; // "ARASETL1"
+    private static final int HEADER_BYTES = 2 * Long.BYTES;
+    // a single buffer can map at most 2 GB, so large files are mapped by segments; keys never cross them
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final ByteBuffer[] segments;
+    private final long from;
+    private final long to;
+
+    private MappedLongArraySet(ByteBuffer[] segments, long from, long to) {
+        this.segments = segments;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Writes ascending keys to file, in the format expected by {@link #open(Path)}.
+     * File is written next to the target and moved over it when complete.
+     * @param file target file.
+     * @param keys keys in strictly ascending order.
+     * @throws IOException if file can not be written.
+     * @throws IllegalArgumentException if keys are not strictly ascending.
+     */
+    public static void write(Path file, PrimitiveIterator.OfLong keys) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(MAGIC).putLong(0);
+            long count = 0;
+            long previous = 0;
+            while (keys.hasNext()) {
+                long key = keys.nextLong();
+                if (count > 0 && key <= previous) {
+                    throw new IllegalArgumentException("Keys must be strictly ascending: " + key + " after " + previous);
+                }
+                if (!buffer.hasRemaining()) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putLong(key);
+                previous = key;
+                count++;
+            }
+            writeFully(channel, buffer);
+            buffer.putLong(count);
+            channel.write(buffer.flip(), Long.BYTES);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps file written by {@link #write(Path, PrimitiveIterator.OfLong)}.
+     * Mapping stays valid after the set becomes unreachable, until it is garbage collected.
+     * @param file file of set.
+     * @return set backed by the file.
+     * @throws IOException if file can not be read or has wrong format.
+     */
+    public static MappedLongArraySet open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Not a mapped set file: " + file);
+                }
+            }
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a mapped set file: " + file);
+            }
+            long count = header.getLong();
+            if (count < 0 || HEADER_BYTES + count * Long.BYTES != fileSize) {
+                throw new IOException("Corrupted mapped set file: " + file);
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((fileSize + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(fileSize - start, SEGMENT_MASK + 1));
+                segments[i] = segment.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new MappedLongArraySet(segments, 0, count);
+        }
+    }
+
+    private long key(long index) {
+        long offset = HEADER_BYTES + index * Long.BYTES;
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Position of key in this set, found by binary search over the mapped file.
+     * @param key key to search.
+     * @return index of key, or {@code -(insertion point) - 1} if there is no such key.
+     */
+    public long indexOf(long key) {
+        long low = from;
+        long high = to - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long value = key(middle);
+            if (value < key) {
+                low = middle + 1;
+            } else if (value > key) {
+                high = middle - 1;
+            } else {
+                return middle - from;
+            }
+        }
+        return -(low - from) - 1;
+    }
+
+    /**
+     * Checks if key is in this set.
+     * @param key key to search.
+     * @return {@code true} if this set contains key.
+     */
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Key by its position in ascending order.
+     * @param index index of key.
+     * @return key with given index.
+     */
+    public long getLong(long index) {
+        Objects.checkIndex(index, longSize());
+        return key(from + index);
+    }
+
+    /**
+     * Number of keys, that may exceed {@link Integer#MAX_VALUE}.
+     * @return number of keys.
+     */
+    public long longSize() {
+        return to - from;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(longSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return longSize() == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) o);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return key(index++);
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    // Absolute index of the first key not less than given one
+    private long ceilingIndex(long key) {
+        long index = indexOf(key);
+        return from + (index >= 0 ? index : -index - 1);
+    }
+
+    private MappedLongArraySet window(long fromIndex, long toIndex) {
+        return new MappedLongArraySet(segments, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    @Override
+    public MappedLongArraySet subSet(Long fromElement, Long toElement) {
+        if (fromElement > toElement) {
+            throw new IllegalArgumentException("Wrong arguments");
+        }
+        return window(ceilingIndex(fromElement), ceilingIndex(toElement));
+    }
+
+    @Override
+    public MappedLongArraySet headSet(Long toElement) {
+        return window(from, ceilingIndex(toElement));
+    }
+
+    @Override
+    public MappedLongArraySet tailSet(Long fromElement) {
+        return window(ceilingIndex(fromElement), to);
+    }
+
+    @Override
+    public Long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return key(from);
+    }
+
+    @Override
+    public Long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return key(to - 1);
+    }
+}
@@ -0,0 +1,465 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.*;
+
+/**
+ * Mutable sorted set, companion of {@link ArraySet}.
+ * Updates go to a small sorted side log and are merged into the sorted array in batches,
+ * when the log reaches a fixed fraction of the set, so one update costs amortized O(log n).
+ * Merges never change an existing array and the log is persistent, so {@link #snapshot()} takes O(1)
+ * and shares both with this set.
+ */
+public class MutableArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
+
+    private static final int MIN_LOG_SIZE = 64;
+    // log is merged when it holds more than size / MERGE_RATIO updates
+    private static final int MERGE_RATIO = 8;
+
+    private final Comparator<? super T> comparator;
+    // sorted array of elements without duplicates, never modified after creation
+    private T[] base;
+    // difference from base: added elements, removed elements of base and elements replacing equal ones of base
+    private UpdateLog<T> log;
+    private int size;
+    // number of updates, checked by iterators
+    private int modCount;
+    // the last snapshot, its merged array is reused by merge
+    private Version<T> version;
+
+    public MutableArraySet() {
+        this((Comparator<? super T>) null);
+    }
+
+    public MutableArraySet(Comparator<? super T> comparator) {
+        this(Collections.emptyList(), comparator);
+    }
+
+    public MutableArraySet(Collection<? extends T> data) {
+        this(data, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public MutableArraySet(Collection<? extends T> data, Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        this.base = (T[]) new ArraySet<T>(data, comparator).toArray();
+        this.log = new UpdateLog<>(comparator);
+        this.size = base.length;
+    }
+
+    private boolean baseContains(T element) {
+        return Arrays.binarySearch(base, element, comparator) >= 0;
+    }
+
+    private int compare(T first, T second) {
+        return log.compare(first, second);
+    }
+
+    private void mergeIfFull() {
+        if (log.size() > Math.max(MIN_LOG_SIZE, size / MERGE_RATIO)) {
+            merge();
+        }
+    }
+
+    private void merge() {
+        if (log.isEmpty()) {
+            return;
+        }
+        base = version != null && version.log == log ? version.merged() : merge(base, log, size);
+        log = new UpdateLog<>(comparator);
+        version = null;
+    }
+
+    // Linear merge of base and log into a new array
+    @SuppressWarnings("unchecked")
+    private static <T> T[] merge(T[] base, UpdateLog<T> log, int size) {
+        T[] result = (T[]) new Object[size];
+        int count = 0;
+        for (Walk<T> walk = new Walk<>(base, log, true, null, false, null, false); walk.hasNext(); ) {
+            result[count++] = walk.next();
+        }
+        return result;
+    }
+
+    // Elements of one version of the set, merged on first access
+    private static final class Version<T> extends AbstractList<T> implements RandomAccess {
+        private final T[] base;
+        private final UpdateLog<T> log;
+        private final int size;
+        private volatile T[] merged;
+
+        private Version(T[] base, UpdateLog<T> log, int size) {
+            this.base = base;
+            this.log = log;
+            this.size = size;
+        }
+
+        // Snapshots may be read by many threads, all of them merge into equal arrays
+        private T[] merged() {
+            T[] result = merged;
+            if (result == null) {
+                result = merge(base, log, size);
+                merged = result;
+            }
+            return result;
+        }
+
+        @Override
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            return merged()[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Immutable snapshot of this set in O(1). It shares the array and the log with this set
+     * and merges them on first access, unless there were no updates since the last merge.
+     * @return {@link ArraySet} with current elements.
+     */
+    public ArraySet<T> snapshot() {
+        if (log.isEmpty()) {
+            return ArraySet.view(Arrays.asList(base), comparator);
+        }
+        if (version == null || version.log != log) {
+            version = new Version<>(base, log, size);
+        }
+        return ArraySet.view(version, comparator);
+    }
+
+    /**
+     * Adds element, if there is no equal one.
+     * Element equal to a removed element of the array replaces it, as in {@link TreeSet}.
+     */
+    @Override
+    public boolean add(T element) {
+        UpdateLog.Node<T> update = log.get(element);
+        if (update != null ? !update.removed : baseContains(element)) {
+            return false;
+        }
+        log = log.put(element, false);
+        size++;
+        modCount++;
+        mergeIfFull();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object o) {
+        T element = (T) o;
+        UpdateLog.Node<T> update = log.get(element);
+        boolean inBase = baseContains(element);
+        if (update != null ? update.removed : !inBase) {
+            return false;
+        }
+        log = inBase ? log.put(element, true) : log.remove(element);
+        size--;
+        modCount++;
+        mergeIfFull();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+        T element = (T) o;
+        UpdateLog.Node<T> update = log.get(element);
+        return update != null ? !update.removed : baseContains(element);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void clear() {
+        base = (T[]) new Object[0];
+        log = new UpdateLog<>(comparator);
+        size = 0;
+        modCount++;
+        version = null;
+    }
+
+    // Merged walk over one version of base and log in one direction, does not merge them.
+    // Stops at bound: exclusive upper one for ascending walk, inclusive lower one for descending walk
+    private static final class Walk<T> implements Iterator<T> {
+        private final T[] array;
+        private final UpdateLog<T> log;
+        private final boolean ascending;
+        private final T bound;
+        private final boolean hasBound;
+        private int index;
+        private UpdateLog.Node<T> update;
+
+        private boolean hasNext;
+        private T next;
+
+        // Ascending walk starts from inclusive start, descending one from exclusive start
+        Walk(T[] array, UpdateLog<T> log, boolean ascending, T start, boolean hasStart, T bound, boolean hasBound) {
+            this.array = array;
+            this.log = log;
+            this.ascending = ascending;
+            this.bound = bound;
+            this.hasBound = hasBound;
+            if (ascending) {
+                index = hasStart ? ceilingIndex(start) : 0;
+                update = hasStart ? log.ceiling(start, true) : log.first();
+            } else {
+                index = hasStart ? ceilingIndex(start) - 1 : array.length - 1;
+                update = hasStart ? log.floor(start, false) : log.last();
+            }
+            advance();
+        }
+
+        private int ceilingIndex(T element) {
+            int i = Arrays.binarySearch(array, element, log::compare);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        private boolean inArray() {
+            return 0 <= index && index < array.length;
+        }
+
+        private int order(T first, T second) {
+            return ascending ? log.compare(first, second) : log.compare(second, first);
+        }
+
+        private void advance() {
+            while (inArray() || update != null) {
+                if (update == null || inArray() && order(array[index], update.element) < 0) {
+                    next = array[index];
+                    index += ascending ? 1 : -1;
+                } else {
+                    UpdateLog.Node<T> current = update;
+                    update = ascending ? log.ceiling(current.element, false) : log.floor(current.element, false);
+                    if (inArray() && order(array[index], current.element) == 0) {
+                        // element of base is removed or replaced
+                        index += ascending ? 1 : -1;
+                    }
+                    if (current.removed) {
+                        continue;
+                    }
+                    next = current.element;
+                }
+                hasNext = !hasBound || (ascending ? log.compare(next, bound) < 0 : log.compare(next, bound) >= 0);
+                return;
+            }
+            hasNext = false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            advance();
+            return result;
+        }
+    }
+
+    private Walk<T> walk(boolean ascending, T start, boolean hasStart, T bound, boolean hasBound) {
+        return new Walk<>(base, log, ascending, start, hasStart, bound, hasBound);
+    }
+
+    // Walk over the version of the set at creation, updates of the set through remove() are not seen by it
+    private final class Itr implements Iterator<T> {
+        private final Walk<T> walk;
+        private int expectedModCount = modCount;
+        private T last;
+        private boolean canRemove;
+
+        private Itr(Walk<T> walk) {
+            this.walk = walk;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return walk.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            last = walk.next();
+            canRemove = true;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            canRemove = false;
+            MutableArraySet.this.remove(last);
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Iterates over elements in ascending order, without merging updates into the array.
+     * Iterator fails fast if the set is changed other than through its {@code remove()}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr(walk(true, null, false, null, false));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement) {
+        if (compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("Wrong arguments");
+        }
+        return new SubSet(fromElement, true, toElement, true);
+    }
+
+    @Override
+    public SortedSet<T> headSet(T toElement) {
+        return new SubSet(null, false, toElement, true);
+    }
+
+    @Override
+    public SortedSet<T> tailSet(T fromElement) {
+        return new SubSet(fromElement, true, null, false);
+    }
+
+    /**
+     * Least element, found in O(log n) unless many elements at the start are removed since the last merge.
+     */
+    @Override
+    public T first() {
+        return firstOf(walk(true, null, false, null, false));
+    }
+
+    /**
+     * Greatest element, found in O(log n) unless many elements at the end are removed since the last merge.
+     */
+    @Override
+    public T last() {
+        return firstOf(walk(false, null, false, null, false));
+    }
+
+    private static <T> T firstOf(Iterator<T> walk) {
+        if (!walk.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return walk.next();
+    }
+
+    // View of elements in [from, to), backed by this set. Its size is counted by iteration
+    private final class SubSet extends AbstractSet<T> implements SortedSet<T> {
+        private final T from;
+        private final boolean hasFrom;
+        private final T to;
+        private final boolean hasTo;
+
+        SubSet(T from, boolean hasFrom, T to, boolean hasTo) {
+            this.from = from;
+            this.hasFrom = hasFrom;
+            this.to = to;
+            this.hasTo = hasTo;
+        }
+
+        // Upper bound of nested view may be equal to the upper bound of this one, as in TreeSet
+        private boolean inBounds(T element, boolean toInclusive) {
+            return (!hasFrom || compare(element, from) >= 0)
+                    && (!hasTo || compare(element, to) < (toInclusive ? 1 : 0));
+        }
+
+        private T checkBound(T element, boolean toInclusive) {
+            if (!inBounds(element, toInclusive)) {
+                throw new IllegalArgumentException("Element out of range");
+            }
+            return element;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean contains(Object o) {
+            return inBounds((T) o, false) && MutableArraySet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(T element) {
+            if (!inBounds(element, false)) {
+                throw new IllegalArgumentException("Element out of range");
+            }
+            return MutableArraySet.this.add(element);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean remove(Object o) {
+            return inBounds((T) o, false) && MutableArraySet.this.remove(o);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Itr(walk(true, from, hasFrom, to, hasTo));
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (Iterator<T> it = iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public Comparator<? super T> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public SortedSet<T> subSet(T fromElement, T toElement) {
+            if (compare(fromElement, toElement) > 0) {
+                throw new IllegalArgumentException("Wrong arguments");
+            }
+            return new SubSet(checkBound(fromElement, false), true, checkBound(toElement, true), true);
+        }
+
+        @Override
+        public SortedSet<T> headSet(T toElement) {
+            return new SubSet(from, hasFrom, checkBound(toElement, true), true);
+        }
+
+        @Override
+        public SortedSet<T> tailSet(T fromElement) {
+            return new SubSet(checkBound(fromElement, false), true, to, hasTo);
+        }
+
+        @Override
+        public T first() {
+            return firstOf(walk(true, from, hasFrom, to, hasTo));
+        }
+
+        @Override
+        public T last() {
+            return firstOf(walk(false, to, hasTo, from, hasFrom));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Reversed view of a random access list, shares its storage
+class ReversedList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final List<T> data;
+
+    ReversedList(List<T> data) {
+        this.data = data;
+    }
+
+    static <T> List<T> reverse(List<T> list) {
+        return list instanceof ReversedList ? ((ReversedList<T>) list).data : new ReversedList<>(list);
+    }
+
+    @Override
+    public T get(int index) {
+        return data.get(data.size() - 1 - index);
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+}
@@ -0,0 +1,419 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+
+public class Tests {
+    private static final int ROUNDS = 50;
+    private static final int OPERATIONS = 5000;
+    private static final int VALUES = 1000;
+
+    // values of primitive sets are mapped from this range, so that every probe is checked
+    private static final int PRIMITIVE_VALUES = 100;
+
+    private static final List<Comparator<Integer>> COMPARATORS = Arrays.asList(null, Comparator.reverseOrder());
+
+    private static <T> void assertSetEquals(SortedSet<T> expected, SortedSet<T> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(expected, actual);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        if (!expected.isEmpty()) {
+            assertEquals(expected.first(), actual.first());
+            assertEquals(expected.last(), actual.last());
+        }
+    }
+
+    private static List<Integer> randomList(Random random, int size) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            list.add(random.nextInt(VALUES));
+        }
+        return list;
+    }
+
+    // Bounds of a non-empty range in order of comparator
+    private static int[] range(Random random, Comparator<Integer> comparator) {
+        int from = random.nextInt(VALUES);
+        int to = random.nextInt(VALUES);
+        return Objects.compare(from, to, comparator != null ? comparator : Comparator.naturalOrder()) <= 0
+                ? new int[]{from, to} : new int[]{to, from};
+    }
+
+    @Test
+    public void testMutableUpdates() {
+        Random random = new Random(8457290348572L);
+        for (Comparator<Integer> comparator : COMPARATORS) {
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Integer> data = randomList(random, random.nextInt(VALUES));
+                TreeSet<Integer> expected = new TreeSet<>(comparator);
+                expected.addAll(data);
+                MutableArraySet<Integer> actual = new MutableArraySet<>(data, comparator);
+                assertSetEquals(expected, actual);
+                // enough updates for several merges
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int value = random.nextInt(VALUES);
+                    if (random.nextBoolean()) {
+                        assertEquals(expected.add(value), actual.add(value));
+                    } else {
+                        assertEquals(expected.remove(value), actual.remove(value));
+                    }
+                    assertEquals(expected.size(), actual.size());
+                    assertEquals(expected.contains(value), actual.contains(value));
+                    if (i % 500 == 0) {
+                        assertSetEquals(expected, actual);
+                    }
+                }
+                assertSetEquals(expected, actual);
+                actual.clear();
+                expected.clear();
+                assertSetEquals(expected, actual);
+                assertTrue(actual.add(1));
+                assertEquals(List.of(1), new ArrayList<>(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testMutableSubSets() {
+        Random random = new Random(2938475029384L);
+        for (Comparator<Integer> comparator : COMPARATORS) {
+            TreeSet<Integer> expected = new TreeSet<>(comparator);
+            MutableArraySet<Integer> actual = new MutableArraySet<>(comparator);
+            for (int i = 0; i < OPERATIONS; i++) {
+                int value = random.nextInt(VALUES);
+                if (random.nextInt(3) > 0) {
+                    expected.add(value);
+                    actual.add(value);
+                } else {
+                    expected.remove(value);
+                    actual.remove(value);
+                }
+                int[] range = range(random, comparator);
+                assertSetEquals(expected.subSet(range[0], range[1]), actual.subSet(range[0], range[1]));
+                assertSetEquals(expected.headSet(value), actual.headSet(value));
+                assertSetEquals(expected.tailSet(value), actual.tailSet(value));
+                if (range[0] != range[1]) {
+                    assertSetEquals(expected.subSet(range[0], range[1]).tailSet(range[0]),
+                            actual.subSet(range[0], range[1]).tailSet(range[0]));
+                }
+                assertSetEquals(expected.subSet(range[0], range[1]).headSet(range[1]),
+                        actual.subSet(range[0], range[1]).headSet(range[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testMutableSubSetIsView() {
+        MutableArraySet<Integer> set = new MutableArraySet<>(List.of(1, 5, 9));
+        SortedSet<Integer> sub = set.subSet(2, 9);
+        assertEquals(List.of(5), new ArrayList<>(sub));
+        assertTrue(sub.add(7));
+        assertTrue(set.contains(7));
+        assertTrue(set.remove(5));
+        assertEquals(List.of(7), new ArrayList<>(sub));
+        assertFalse(sub.remove(9));
+        assertFalse(sub.contains(1));
+        try {
+            sub.add(9);
+            fail("Element out of range is added");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            sub.subSet(1, 3);
+            fail("Sub set out of range is created");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testMutableIterator() {
+        Random random = new Random(5647382910L);
+        for (Comparator<Integer> comparator : COMPARATORS) {
+            for (int round = 0; round < ROUNDS; round++) {
+                TreeSet<Integer> expected = new TreeSet<>(comparator);
+                MutableArraySet<Integer> actual = new MutableArraySet<>(randomList(random, VALUES), comparator);
+                expected.addAll(actual);
+                for (int value : randomList(random, VALUES / 2)) {
+                    expected.add(value);
+                    actual.add(value);
+                }
+                // removing every other element through iterator causes merges meanwhile
+                List<Integer> seen = new ArrayList<>();
+                for (Iterator<Integer> it = actual.iterator(); it.hasNext(); ) {
+                    Integer value = it.next();
+                    seen.add(value);
+                    if (seen.size() % 2 == 0) {
+                        it.remove();
+                        expected.remove(value);
+                    }
+                }
+                assertEquals(seen.size(), expected.size() + seen.size() / 2);
+                assertSetEquals(expected, actual);
+            }
+        }
+
+        MutableArraySet<Integer> set = new MutableArraySet<>(List.of(1, 2, 3));
+        Iterator<Integer> it = set.iterator();
+        it.next();
+        set.add(4);
+        try {
+            it.next();
+            fail("Modification is not detected");
+        } catch (ConcurrentModificationException ignored) {
+        }
+    }
+
+    @Test
+    public void testMutableReplacesEqualElement() {
+        MutableArraySet<String> actual = new MutableArraySet<>(List.of("bar", "foo"), String.CASE_INSENSITIVE_ORDER);
+        TreeSet<String> expected = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        expected.addAll(List.of("bar", "foo"));
+
+        assertEquals(expected.remove("foo"), actual.remove("foo"));
+        assertEquals(expected.add("FOO"), actual.add("FOO"));
+        assertEquals(expected.add("Foo"), actual.add("Foo"));
+        assertEquals(List.of("bar", "FOO"), new ArrayList<>(actual));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals("FOO", actual.last());
+        assertEquals(List.of("bar", "FOO"), new ArrayList<>(actual.snapshot()));
+
+        // replaced element survives merge
+        for (int i = 0; i < 1000; i++) {
+            actual.add("x" + i);
+            expected.add("x" + i);
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual.snapshot()));
+    }
+
+    @Test
+    public void testMutableReplacesEqualElementRandom() {
+        Random random = new Random(9182736450L);
+        for (int round = 0; round < ROUNDS; round++) {
+            TreeSet<String> expected = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            MutableArraySet<String> actual = new MutableArraySet<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < OPERATIONS; i++) {
+                String value = "k" + random.nextInt(VALUES / 10);
+                value = random.nextBoolean() ? value.toUpperCase() : value;
+                if (random.nextBoolean()) {
+                    assertEquals(expected.add(value), actual.add(value));
+                } else {
+                    assertEquals(expected.remove(value), actual.remove(value));
+                }
+                if (i % 100 == 0) {
+                    assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+                    assertEquals(new ArrayList<>(expected), new ArrayList<>(actual.snapshot()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshots() {
+        Random random = new Random(1029384756L);
+        for (Comparator<Integer> comparator : COMPARATORS) {
+            MutableArraySet<Integer> set = new MutableArraySet<>(randomList(random, VALUES), comparator);
+            TreeSet<Integer> current = new TreeSet<>(comparator);
+            current.addAll(set);
+            List<ArraySet<Integer>> snapshots = new ArrayList<>();
+            List<List<Integer>> expected = new ArrayList<>();
+            for (int i = 0; i < OPERATIONS; i++) {
+                int value = random.nextInt(VALUES);
+                if (random.nextBoolean()) {
+                    set.add(value);
+                    current.add(value);
+                } else {
+                    set.remove(value);
+                    current.remove(value);
+                }
+                snapshots.add(set.snapshot());
+                expected.add(new ArrayList<>(current));
+            }
+            // later updates and merges do not change earlier snapshots
+            for (int i = snapshots.size() - 1; i >= 0; i--) {
+                assertEquals(expected.get(i), new ArrayList<>(snapshots.get(i)));
+                assertEquals(comparator, snapshots.get(i).comparator());
+            }
+            ArraySet<Integer> snapshot = set.snapshot();
+            assertEquals(new ArrayList<>(current), new ArrayList<>(snapshot));
+            assertEquals(current.headSet(VALUES / 2), snapshot.headSet(VALUES / 2));
+        }
+    }
+    // Random values of a primitive set, unsorted with repeats or sorted
+    private static int[] randomValues(Random random) {
+        int[] values = random.ints(random.nextInt(PRIMITIVE_VALUES), 0, PRIMITIVE_VALUES).toArray();
+        if (random.nextBoolean()) {
+            Arrays.sort(values);
+        }
+        return values;
+    }
+
+    // Every value of the range and both extremes of the type, in ascending order
+    private static <T> List<T> probes(IntFunction<T> value, T min, T max) {
+        List<T> probes = new ArrayList<>(List.of(min));
+        for (int i = 0; i < PRIMITIVE_VALUES; i++) {
+            probes.add(value.apply(i));
+        }
+        probes.add(max);
+        return probes;
+    }
+
+    private static <T> void assertNavigation(NavigableSet<T> expected, NavigableSet<T> actual, List<T> probes) {
+        assertSetEquals(expected, actual);
+        for (T probe : probes) {
+            assertEquals(expected.contains(probe), actual.contains(probe));
+            assertEquals(expected.lower(probe), actual.lower(probe));
+            assertEquals(expected.floor(probe), actual.floor(probe));
+            assertEquals(expected.ceiling(probe), actual.ceiling(probe));
+            assertEquals(expected.higher(probe), actual.higher(probe));
+        }
+    }
+
+    private static <T> void assertIndexOf(NavigableSet<T> expected, NavigableSet<T> actual, List<T> probes,
+                                          BiFunction<NavigableSet<T>, T, Integer> indexOf) {
+        List<T> list = new ArrayList<>(expected);
+        for (T probe : probes) {
+            @SuppressWarnings("unchecked")
+            int index = Collections.binarySearch((List<Comparable<? super T>>) list, probe);
+            assertEquals(index, (int) indexOf.apply(actual, probe));
+        }
+    }
+
+    // Checks navigation and indexOf of primitive set and its sub sets, descending sets and sub sets of sub sets
+    private static <T> void assertPrimitiveSet(TreeSet<T> expected, NavigableSet<T> actual, List<T> probes,
+                                               BiFunction<NavigableSet<T>, T, Integer> indexOf, Random random) {
+        assertNavigation(expected, actual, probes);
+        assertIndexOf(expected, actual, probes, indexOf);
+        assertNavigation(expected.descendingSet(), actual.descendingSet(), probes);
+        assertEquals(new ArrayList<>(expected.descendingSet()), toList(actual.descendingIterator()));
+        for (T probe : probes) {
+            assertSetEquals(expected.headSet(probe), actual.headSet(probe));
+            assertSetEquals(expected.tailSet(probe), actual.tailSet(probe));
+            for (boolean inclusive : new boolean[]{false, true}) {
+                assertNavigation(expected.headSet(probe, inclusive), actual.headSet(probe, inclusive), probes);
+                assertNavigation(expected.tailSet(probe, inclusive), actual.tailSet(probe, inclusive), probes);
+                assertIndexOf(expected.tailSet(probe, inclusive), actual.tailSet(probe, inclusive), probes, indexOf);
+            }
+        }
+        for (int i = 0; i < PRIMITIVE_VALUES / 10; i++) {
+            int from = random.nextInt(probes.size());
+            int to = from + random.nextInt(probes.size() - from);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            T fromElement = probes.get(from);
+            T toElement = probes.get(to);
+            assertSetEquals(expected.subSet(fromElement, toElement), actual.subSet(fromElement, toElement));
+            NavigableSet<T> expectedSub = expected.subSet(fromElement, fromInclusive, toElement, toInclusive);
+            NavigableSet<T> actualSub = actual.subSet(fromElement, fromInclusive, toElement, toInclusive);
+            assertNavigation(expectedSub, actualSub, probes);
+            assertIndexOf(expectedSub, actualSub, probes, indexOf);
+            assertNavigation(expectedSub.descendingSet(), actualSub.descendingSet(), probes);
+            // probes strictly inside the range are valid bounds of nested sub sets
+            for (T probe : probes.subList(from + 1, Math.max(from + 1, to))) {
+                assertNavigation(expectedSub.headSet(probe, true), actualSub.headSet(probe, true), probes);
+                assertNavigation(expectedSub.tailSet(probe, false), actualSub.tailSet(probe, false), probes);
+                assertIndexOf(expectedSub.tailSet(probe, false), actualSub.tailSet(probe, false), probes, indexOf);
+            }
+        }
+    }
+
+    private static <T> void assertSetOperations(TreeSet<T> first, TreeSet<T> second,
+                                                SortedSet<T> union, SortedSet<T> intersection, SortedSet<T> difference) {
+        TreeSet<T> expected = new TreeSet<>(first);
+        expected.addAll(second);
+        assertSetEquals(expected, union);
+        expected = new TreeSet<>(first);
+        expected.retainAll(second);
+        assertSetEquals(expected, intersection);
+        expected = new TreeSet<>(first);
+        expected.removeAll(second);
+        assertSetEquals(expected, difference);
+    }
+
+    private static <T> List<T> toList(Iterator<T> iterator) {
+        List<T> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static int intValue(int value) {
+        return (value - PRIMITIVE_VALUES / 2) * 10_000_019;
+    }
+
+    // Values differ in high bits, so that narrowing to int would be noticed
+    private static long longValue(int value) {
+        return (value - PRIMITIVE_VALUES / 2) * (1L << 40) + value;
+    }
+
+    @Test
+    public void testIntArraySet() {
+        Random random = new Random(7350918273645L);
+        List<Integer> probes = probes(Tests::intValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] values = Arrays.stream(randomValues(random)).map(Tests::intValue).toArray();
+            TreeSet<Integer> expected = new TreeSet<>();
+            Arrays.stream(values).forEach(expected::add);
+            IntArraySet actual = new IntArraySet(values);
+            assertPrimitiveSet(expected, actual, probes, (set, value) -> ((IntArraySet) set).indexOf(value), random);
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toIntArray());
+            List<Integer> list = new ArrayList<>(expected);
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals((int) list.get(i), actual.getInt(i));
+            }
+
+            int[] otherValues = Arrays.stream(randomValues(random)).map(Tests::intValue).toArray();
+            TreeSet<Integer> otherExpected = new TreeSet<>();
+            Arrays.stream(otherValues).forEach(otherExpected::add);
+            IntArraySet other = new IntArraySet(otherValues);
+            assertSetOperations(expected, otherExpected,
+                    actual.union(other), actual.intersection(other), actual.difference(other));
+            assertSetOperations(otherExpected, expected,
+                    other.union(actual), other.intersection(actual), other.difference(actual));
+            // operands are windows in the middle of their arrays
+            int bound = probes.get(random.nextInt(probes.size()));
+            IntArraySet first = actual.tailSet(bound);
+            IntArraySet second = other.subSet(bound, Integer.MAX_VALUE);
+            assertSetOperations(new TreeSet<>(expected.tailSet(bound)), new TreeSet<>(otherExpected.subSet(bound, Integer.MAX_VALUE)),
+                    first.union(second), first.intersection(second), first.difference(second));
+        }
+    }
+
+    @Test
+    public void testLongArraySet() {
+        Random random = new Random(1928374655647L);
+        List<Long> probes = probes(Tests::longValue, Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            long[] values = Arrays.stream(randomValues(random)).mapToLong(Tests::longValue).toArray();
+            TreeSet<Long> expected = new TreeSet<>();
+            Arrays.stream(values).forEach(expected::add);
+            LongArraySet actual = new LongArraySet(values);
+            assertPrimitiveSet(expected, actual, probes, (set, value) -> ((LongArraySet) set).indexOf(value), random);
+            assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), actual.toLongArray());
+            List<Long> list = new ArrayList<>(expected);
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals((long) list.get(i), actual.getLong(i));
+            }
+
+            long[] otherValues = Arrays.stream(randomValues(random)).mapToLong(Tests::longValue).toArray();
+            TreeSet<Long> otherExpected = new TreeSet<>();
+            Arrays.stream(otherValues).forEach(otherExpected::add);
+            LongArraySet other = new LongArraySet(otherValues);
+            assertSetOperations(expected, otherExpected,
+                    actual.union(other), actual.intersection(other), actual.difference(other));
+            assertSetOperations(otherExpected, expected,
+                    other.union(actual), other.intersection(actual), other.difference(actual));
+            // operands are windows in the middle of their arrays
+            long bound = probes.get(random.nextInt(probes.size()));
+            LongArraySet first = actual.tailSet(bound);
+            LongArraySet second = other.subSet(bound, Long.MAX_VALUE);
+            assertSetOperations(new TreeSet<>(expected.tailSet(bound)), new TreeSet<>(otherExpected.subSet(bound, Long.MAX_VALUE)),
+                    first.union(second), first.intersection(second), first.difference(second));
+        }
+    }
+}
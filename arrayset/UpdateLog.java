@@ -0,0 +1,173 @@
+package info.kgeorgiy.ja.lorents.arrayset;
+
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Persistent sorted log of updates of a MutableArraySet: a treap, where every update creates O(log n) nodes
+// and shares the rest with the previous version, so snapshots keep their version of the log for free
+final class UpdateLog<T> {
+
+    static final class Node<T> {
+        // added element, or element of base it replaces or removes
+        final T element;
+        final boolean removed;
+        private final int priority;
+        private final Node<T> left;
+        private final Node<T> right;
+
+        private Node(T element, boolean removed, int priority, Node<T> left, Node<T> right) {
+            this.element = element;
+            this.removed = removed;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+        }
+
+        private Node<T> with(Node<T> left, Node<T> right) {
+            return new Node<>(element, removed, priority, left, right);
+        }
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Node<T> root;
+    private final int size;
+
+    UpdateLog(Comparator<? super T> comparator) {
+        this(comparator, null, 0);
+    }
+
+    private UpdateLog(Comparator<? super T> comparator, Node<T> root, int size) {
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(T first, T second) {
+        return comparator != null ? comparator.compare(first, second) : ((Comparable<? super T>) first).compareTo(second);
+    }
+
+    Node<T> get(T element) {
+        Node<T> node = root;
+        while (node != null) {
+            int order = compare(element, node.element);
+            if (order == 0) {
+                return node;
+            }
+            node = order < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    // Version with given update of element, replacing update of an equal element
+    UpdateLog<T> put(T element, boolean removed) {
+        boolean present = get(element) != null;
+        return new UpdateLog<>(comparator, put(root, element, removed, ThreadLocalRandom.current().nextInt()),
+                present ? size : size + 1);
+    }
+
+    private Node<T> put(Node<T> node, T element, boolean removed, int priority) {
+        if (node == null) {
+            return new Node<>(element, removed, priority, null, null);
+        }
+        int order = compare(element, node.element);
+        if (order == 0) {
+            return new Node<>(element, removed, node.priority, node.left, node.right);
+        }
+        if (order < 0) {
+            Node<T> left = put(node.left, element, removed, priority);
+            return left.priority > node.priority
+                    ? left.with(left.left, node.with(left.right, node.right))
+                    : node.with(left, node.right);
+        } else {
+            Node<T> right = put(node.right, element, removed, priority);
+            return right.priority > node.priority
+                    ? right.with(node.with(node.left, right.left), right.right)
+                    : node.with(node.left, right);
+        }
+    }
+
+    // Version without update of element
+    UpdateLog<T> remove(T element) {
+        return get(element) == null ? this : new UpdateLog<>(comparator, remove(root, element), size - 1);
+    }
+
+    private Node<T> remove(Node<T> node, T element) {
+        int order = compare(element, node.element);
+        if (order == 0) {
+            return join(node.left, node.right);
+        }
+        return order < 0
+                ? node.with(remove(node.left, element), node.right)
+                : node.with(node.left, remove(node.right, element));
+    }
+
+    // Joins trees, where every element of left is less than every element of right
+    private static <T> Node<T> join(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        return left.priority > right.priority
+                ? left.with(left.left, join(left.right, right))
+                : right.with(join(left, right.left), right.right);
+    }
+
+    Node<T> first() {
+        Node<T> node = root;
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    Node<T> last() {
+        Node<T> node = root;
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    // Update of the least element greater than (or equal to, if inclusive) given one
+    Node<T> ceiling(T element, boolean inclusive) {
+        Node<T> result = null;
+        Node<T> node = root;
+        while (node != null) {
+            int order = compare(node.element, element);
+            if (order > 0 || inclusive && order == 0) {
+                result = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    // Update of the greatest element less than (or equal to, if inclusive) given one
+    Node<T> floor(T element, boolean inclusive) {
+        Node<T> result = null;
+        Node<T> node = root;
+        while (node != null) {
+            int order = compare(node.element, element);
+            if (order < 0 || inclusive && order == 0) {
+                result = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+}
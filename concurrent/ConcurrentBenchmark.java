@@ -0,0 +1,187 @@
+package info.kgeorgiy.ja.lorents.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmark of {@link IterativeParallelism} and {@link ParallelMapperImpl}.
+ * Sweeps list sizes, number of threads, cost of one element and number of clients sharing one mapper,
+ * and prints throughput, latency percentiles and allocation rate of every combination.
+ * <p>
+ * Sizes go up to 10<sup>8</sup> by default. Input list is backed by an {@code int[]} (400 MB at the largest size)
+ * and boxes elements on read, as a boxed list would take several GB. Results of {@code map} are still boxed,
+ * so the largest sizes need a heap of a few GB, or a smaller {@code maxSize}.
+ */
+public class ConcurrentBenchmark {
+
+    private static final String USAGE = "ConcurrentBenchmark [maxSize [maxThreads [maxClients [millis]]]]";
+    private static final int[] COSTS = {0, 100, 10_000};
+    private static final int MIN_SIZE = 10;
+    private static final int SIZE_STEP = 10;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps results of benchmarked calls reachable, so they are not optimized away
+    private static volatile Object sink;
+
+    private interface Operation {
+        Object run() throws InterruptedException;
+    }
+
+    // Busy work of given cost, so that cheap and expensive functions are both measured
+    private static int work(int value, int cost) {
+        int result = value;
+        for (int i = 0; i < cost; i++) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+
+    private static long allocatedBytes(long[] ids) {
+        return Arrays.stream(THREADS.getThreadAllocatedBytes(ids)).filter(bytes -> bytes > 0).sum();
+    }
+
+    private static void measure(String name, int size, int threads, int cost, int clients,
+                                long millis, Operation operation) throws InterruptedException {
+        // warm up
+        run(clients, millis / 2, operation, new AtomicLong());
+
+        long[] workers = THREADS.getAllThreadIds();
+        long workersBefore = allocatedBytes(workers);
+        AtomicLong clientBytes = new AtomicLong();
+        long start = System.nanoTime();
+        long[] latencies = run(clients, millis, operation, clientBytes);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long bytes = allocatedBytes(workers) - workersBefore + clientBytes.get();
+
+        Arrays.sort(latencies);
+        String percentiles = Arrays.stream(PERCENTILES)
+                .mapToObj(p -> String.format("p%.0f=%.1fus", p * 100,
+                        latencies.length == 0 ? 0 : latencies[(int) (p * (latencies.length - 1))] / 1e3))
+                .collect(Collectors.joining(" "));
+        System.out.printf("%-8s size=%-9d threads=%-3d cost=%-6d clients=%-3d %12.1f ops/s %14.0f elements/s %s %10.1f MB/s%n",
+                name, size, threads, cost, clients, latencies.length / seconds, (double) latencies.length * size / seconds,
+                percentiles, bytes / seconds / (1 << 20));
+    }
+
+    private static long[] run(int clients, long millis, Operation operation, AtomicLong allocated) throws InterruptedException {
+        final long deadline = System.nanoTime() + millis * 1_000_000;
+        final List<long[]> latencies = new ArrayList<>(Collections.nCopies(clients, null));
+        final Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                long bytes = THREADS.getCurrentThreadAllocatedBytes();
+                long[] times = new long[1024];
+                int count = 0;
+                try {
+                    long now;
+                    while ((now = System.nanoTime()) < deadline) {
+                        sink = operation.run();
+                        if (count == times.length) {
+                            times = Arrays.copyOf(times, count * 2);
+                        }
+                        times[count++] = System.nanoTime() - now;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latencies.set(index, Arrays.copyOf(times, count));
+                allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - bytes);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return latencies.stream().flatMapToLong(Arrays::stream).toArray();
+    }
+
+    private static int getArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    // Doubles value, max is the last step even if it is not a power of two, 0 after max
+    private static int nextStep(int value, int max) {
+        return value < max ? (value <= max / 2 ? 2 * value : max) : 0;
+    }
+
+    // List of 0..size-1 stored unboxed
+    private static List<Integer> range(int size) {
+        final int[] elements = new int[size];
+        Arrays.setAll(elements, i -> i);
+        return new IntList(elements);
+    }
+
+    private static final class IntList extends AbstractList<Integer> implements RandomAccess {
+        private final int[] elements;
+
+        private IntList(int[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments. Usage: ConcurrentBenchmark [maxSize [maxThreads [maxClients [millis]]]]
+     */
+    public static void main(String[] args) {
+        final int maxSize;
+        final int maxThreads;
+        final int maxClients;
+        final int millis;
+        try {
+            maxSize = getArg(args, 0, 100_000_000);
+            maxThreads = getArg(args, 1, Runtime.getRuntime().availableProcessors());
+            maxClients = getArg(args, 2, 4);
+            millis = getArg(args, 3, 500);
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect arguments, use: " + USAGE);
+            return;
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        try {
+            for (long size = MIN_SIZE; size <= maxSize; size *= SIZE_STEP) {
+                final List<Integer> values = range((int) size);
+                for (int threads = 1; 0 < threads && threads <= maxThreads; threads = nextStep(threads, maxThreads)) {
+                    final int groups = threads;
+                    try (ParallelMapperImpl mapper = new ParallelMapperImpl(threads)) {
+                        final IterativeParallelism parallelism = new IterativeParallelism(mapper);
+                        for (int cost : COSTS) {
+                            final Comparator<Integer> comparator = Comparator.comparingInt(x -> work(x, cost));
+                            for (int clients = 1; 0 < clients && clients <= maxClients; clients = nextStep(clients, maxClients)) {
+                                measure("maximum", values.size(), threads, cost, clients, millis,
+                                        () -> parallelism.maximum(groups, values, comparator));
+                                measure("minimum", values.size(), threads, cost, clients, millis,
+                                        () -> parallelism.minimum(groups, values, comparator));
+                                measure("all", values.size(), threads, cost, clients, millis,
+                                        () -> parallelism.all(groups, values, x -> work(x, cost) != x - 1));
+                                measure("any", values.size(), threads, cost, clients, millis,
+                                        () -> parallelism.any(groups, values, x -> work(x, cost) == x - 1));
+                                measure("map", values.size(), threads, cost, clients, millis,
+                                        () -> mapper.map(x -> work(x, cost), values));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Benchmark was interrupted " + e.getMessage());
+        }
+    }
+}
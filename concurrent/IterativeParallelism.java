@@ -1,22 +1,44 @@
 package info.kgeorgiy.ja.lorents.concurrent;
 
-import info.kgeorgiy.java.advanced.concurrent.ScalarIP;
+import info.kgeorgiy.java.advanced.concurrent.ListIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
+import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
-public class IterativeParallelism implements ScalarIP {
+public class IterativeParallelism implements ListIP {
 
     private final ParallelMapper mapper;
+    private final ThreadFactory factory;
 
     /**
      * Default constructor for ParallelMapper.
      */
     public IterativeParallelism() {
-        mapper = null;
+        this(Thread::new);
+    }
+
+    /**
+     * Constructor without ParallelMapper, that starts threads of each call with given factory,
+     * e.g. virtual ones from {@link VirtualThreads#factory()}.
+     * To share carriers with other users instead, pass {@link VirtualThreads#sharedMapper()} as mapper.
+     * @param factory {@link ThreadFactory}
+     */
+    public IterativeParallelism(ThreadFactory factory) {
+        this.mapper = null;
+        this.factory = factory;
     }
 
     /**
@@ -25,10 +47,15 @@ public class IterativeParallelism implements ScalarIP {
      */
     public IterativeParallelism(ParallelMapper mapper) {
         this.mapper = mapper;
+        this.factory = null;
     }
 
-    private <T, E> void validateArgs(int threads, List<? extends T> values,
-                                     Function<Stream<? extends T>, E> function) throws InterruptedException {
+    // Function applied by one thread to its group of elements [from, to)
+    private interface RangeFunction<E> {
+        E apply(int from, int to);
+    }
+
+    private void validateArgs(int threads, Object values, Object function) throws InterruptedException {
         if (values == null || function == null) {
             throw new InterruptedException("Arguments should not be null");
         }
@@ -42,19 +69,19 @@ public class IterativeParallelism implements ScalarIP {
         return fromElement + elementsInGroup + (remainder > 0 ? 1 : 0);
     }
 
-    private <T, E> List<E> calculateFunction(List<T> list, int threadsNumber,
-                                             Function<Stream<? extends T>, E> function) throws InterruptedException {
-
-        validateArgs(threadsNumber, list, function);
-        int numberOfThreads = Math.min(list.size(), threadsNumber);
-        int elementsInGroup = list.size() / numberOfThreads;
-        int remainder = list.size() % numberOfThreads;
+    private <E> List<E> calculateRanges(int size, int threadsNumber, RangeFunction<E> function) throws InterruptedException {
+        int numberOfThreads = Math.min(size, threadsNumber);
+        if (numberOfThreads == 0) {
+            return Collections.emptyList();
+        }
+        int elementsInGroup = size / numberOfThreads;
+        int remainder = size % numberOfThreads;
 
-        List<Stream<T>> listOfElements = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
         int fromElement = 0;
         int toElement = changeIndex(fromElement, elementsInGroup, remainder);
         for (int i = 0; i < numberOfThreads; ++i) {
-            listOfElements.add(list.subList(fromElement, toElement).stream());
+            ranges.add(new int[]{fromElement, toElement});
             remainder = (remainder > 0 ? --remainder : 0);
             fromElement = toElement;
             toElement = changeIndex(fromElement, elementsInGroup, remainder);
@@ -65,8 +92,9 @@ public class IterativeParallelism implements ScalarIP {
             List<E> result = new ArrayList<>(Collections.nCopies(numberOfThreads, null));
             Thread[] threads = new Thread[numberOfThreads];
             for (int i = 0; i < numberOfThreads; i++) {
+                final int[] range = ranges.get(i);
                 final int index = i;
-                threads[index] = new Thread(() -> result.set(index, function.apply(listOfElements.get(index))));
+                threads[index] = factory.newThread(() -> result.set(index, function.apply(range[0], range[1])));
                 threads[index].start();
             }
             for (int i = 0; i < numberOfThreads; i++) {
@@ -75,10 +103,110 @@ public class IterativeParallelism implements ScalarIP {
             return result;
 
         } else {
-            return mapper.map(function, listOfElements);
+            return mapper.map(range -> function.apply(range[0], range[1]), ranges);
         }
     }
 
+    private <T, E> List<E> calculateFunction(List<T> list, int threadsNumber,
+                                             Function<Stream<? extends T>, E> function) throws InterruptedException {
+
+        validateArgs(threadsNumber, list, function);
+        return calculateRanges(list.size(), threadsNumber, (from, to) -> function.apply(list.subList(from, to).stream()));
+    }
+
+    // Each thread writes results for its group straight into the same positions of output
+    private <T, U> Object[] mapToArray(int threads, List<? extends T> values,
+                                       Function<? super T, ? extends U> f) throws InterruptedException {
+        validateArgs(threads, values, f);
+        final Object[] output = new Object[values.size()];
+        calculateRanges(values.size(), threads, (from, to) -> {
+            int index = from;
+            for (T value : values.subList(from, to)) {
+                output[index++] = f.apply(value);
+            }
+            return null;
+        });
+        return output;
+    }
+
+    // Primitive versions of reductions and checks: plain index loops over array slices, boxing only once per thread
+
+    private OptionalInt reduceInts(int threads, int[] values, IntBinaryOperator operator) throws InterruptedException {
+        validateArgs(threads, values, operator);
+        return calculateRanges(values.length, threads, (from, to) -> {
+            int result = values[from];
+            for (int i = from + 1; i < to; i++) {
+                result = operator.applyAsInt(result, values[i]);
+            }
+            return result;
+        }).stream().mapToInt(Integer::intValue).reduce(operator);
+    }
+
+    private OptionalLong reduceLongs(int threads, long[] values, LongBinaryOperator operator) throws InterruptedException {
+        validateArgs(threads, values, operator);
+        return calculateRanges(values.length, threads, (from, to) -> {
+            long result = values[from];
+            for (int i = from + 1; i < to; i++) {
+                result = operator.applyAsLong(result, values[i]);
+            }
+            return result;
+        }).stream().mapToLong(Long::longValue).reduce(operator);
+    }
+
+    private OptionalDouble reduceDoubles(int threads, double[] values, DoubleBinaryOperator operator) throws InterruptedException {
+        validateArgs(threads, values, operator);
+        return calculateRanges(values.length, threads, (from, to) -> {
+            double result = values[from];
+            for (int i = from + 1; i < to; i++) {
+                result = operator.applyAsDouble(result, values[i]);
+            }
+            return result;
+        }).stream().mapToDouble(Double::doubleValue).reduce(operator);
+    }
+
+    // Same order as Comparator.naturalOrder() for Double, first one wins on ties
+    private static double maxDouble(double a, double b) {
+        return Double.compare(a, b) >= 0 ? a : b;
+    }
+
+    private static double minDouble(double a, double b) {
+        return Double.compare(a, b) <= 0 ? a : b;
+    }
+
+    // Checks all indices of [0, size), with the same early termination as all(threads, list, predicate)
+    private boolean allIndices(int threads, Object values, Object predicate, IntPredicate test) throws InterruptedException {
+        validateArgs(threads, values, predicate);
+        final AtomicBoolean decided = new AtomicBoolean();
+        return calculateRanges(Array.getLength(values), threads, (from, to) -> {
+            for (int i = from; i < to && !decided.get(); i++) {
+                if (!test.test(i)) {
+                    decided.set(true);
+                    return false;
+                }
+            }
+            return !decided.get();
+        }).stream().allMatch(Boolean::booleanValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <U> List<U> asList(Object[] array) {
+        return (List<U>) Arrays.asList(array);
+    }
+
+    // Predicate that fails for every element once any of its users has found a counterexample
+    private static <T> Predicate<T> cancellable(Predicate<? super T> predicate, AtomicBoolean decided) {
+        return value -> {
+            if (decided.get()) {
+                return false;
+            }
+            if (predicate.test(value)) {
+                return true;
+            }
+            decided.set(true);
+            return false;
+        };
+    }
+
     @Override
     public <T> T maximum(int threads, List<? extends T> values, Comparator<? super T> comparator) throws InterruptedException {
         return calculateFunction(values, threads, x -> x.max(comparator).orElse(null)).stream().max(comparator).orElse(null);
@@ -91,12 +219,229 @@ public class IterativeParallelism implements ScalarIP {
 
     @Override
     public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-        return calculateFunction(values, threads, x -> x.allMatch(predicate)).stream().allMatch(Boolean::booleanValue);
+        // once result is known, remaining groups (including ones still queued in mapper) stop on their first element
+        final Predicate<T> check = cancellable(predicate, new AtomicBoolean());
+        return calculateFunction(values, threads, x -> x.allMatch(check)).stream().allMatch(Boolean::booleanValue);
     }
 
     @Override
     public <T> boolean any(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
         return !all(threads, values, predicate.negate());
     }
-}
 
+    @Override
+    public String join(int threads, List<?> values) throws InterruptedException {
+        return String.join("", IterativeParallelism.<String>asList(mapToArray(threads, values, Object::toString)));
+    }
+
+    @Override
+    public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        validateArgs(threads, values, predicate);
+        final Object[] output = new Object[values.size()];
+        // every group keeps its elements at the beginning of its own range, then ranges are moved together
+        List<int[]> kept = calculateRanges(values.size(), threads, (from, to) -> {
+            int index = from;
+            for (T value : values.subList(from, to)) {
+                if (predicate.test(value)) {
+                    output[index++] = value;
+                }
+            }
+            return new int[]{from, index};
+        });
+        int size = 0;
+        for (int[] range : kept) {
+            System.arraycopy(output, range[0], output, size, range[1] - range[0]);
+            size += range[1] - range[0];
+        }
+        return asList(Arrays.copyOf(output, size));
+    }
+
+    @Override
+    public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f) throws InterruptedException {
+        return asList(mapToArray(threads, values, f));
+    }
+
+    /**
+     * Reduces values with associative operator.
+     * @param threads number of threads.
+     * @param values values to reduce.
+     * @param identity identity of operator, result for empty list.
+     * @param operator associative operator.
+     * @param <T> value type.
+     * @return values reduced in list order.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public <T> T reduce(int threads, List<? extends T> values, T identity, BinaryOperator<T> operator) throws InterruptedException {
+        return mapReduce(threads, values, Function.identity(), identity, operator);
+    }
+
+    /**
+     * Maps and reduces values with associative operator, without intermediate list of mapped values.
+     * @param threads number of threads.
+     * @param values values to reduce.
+     * @param lift mapping function.
+     * @param identity identity of operator, result for empty list.
+     * @param operator associative operator.
+     * @param <T> value type.
+     * @param <R> mapped value type.
+     * @return mapped values reduced in list order.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public <T, R> R mapReduce(int threads, List<? extends T> values, Function<? super T, ? extends R> lift,
+                              R identity, BinaryOperator<R> operator) throws InterruptedException {
+        validateArgs(threads, values, lift);
+        return calculateFunction(values, threads, x -> x.<R>map(lift).reduce(identity, operator))
+                .stream().reduce(identity, operator);
+    }
+
+    /**
+     * Counts values satisfying predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @param <T> value type.
+     * @return number of values satisfying predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public <T> int count(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return calculateFunction(values, threads, x -> (int) x.filter(predicate).count()).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Maximum of int values.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return maximum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalInt maximum(int threads, int[] values) throws InterruptedException {
+        return reduceInts(threads, values, Math::max);
+    }
+
+    /**
+     * Minimum of int values.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return minimum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalInt minimum(int threads, int[] values) throws InterruptedException {
+        return reduceInts(threads, values, Math::min);
+    }
+
+    /**
+     * Checks that all int values satisfy predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if all values satisfy predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean all(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return allIndices(threads, values, predicate, i -> predicate.test(values[i]));
+    }
+
+    /**
+     * Checks that any of int values satisfies predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if some value satisfies predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean any(int threads, int[] values, IntPredicate predicate) throws InterruptedException {
+        return !all(threads, values, predicate.negate());
+    }
+
+    /**
+     * Maximum of long values.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return maximum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalLong maximum(int threads, long[] values) throws InterruptedException {
+        return reduceLongs(threads, values, Math::max);
+    }
+
+    /**
+     * Minimum of long values.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return minimum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalLong minimum(int threads, long[] values) throws InterruptedException {
+        return reduceLongs(threads, values, Math::min);
+    }
+
+    /**
+     * Checks that all long values satisfy predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if all values satisfy predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean all(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return allIndices(threads, values, predicate, i -> predicate.test(values[i]));
+    }
+
+    /**
+     * Checks that any of long values satisfies predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if some value satisfies predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean any(int threads, long[] values, LongPredicate predicate) throws InterruptedException {
+        return !all(threads, values, predicate.negate());
+    }
+
+    /**
+     * Maximum of double values, in order of {@link Double#compare(double, double)}.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return maximum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalDouble maximum(int threads, double[] values) throws InterruptedException {
+        return reduceDoubles(threads, values, IterativeParallelism::maxDouble);
+    }
+
+    /**
+     * Minimum of double values, in order of {@link Double#compare(double, double)}.
+     * @param threads number of threads.
+     * @param values values to compare.
+     * @return minimum, or empty if there are no values.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public OptionalDouble minimum(int threads, double[] values) throws InterruptedException {
+        return reduceDoubles(threads, values, IterativeParallelism::minDouble);
+    }
+
+    /**
+     * Checks that all double values satisfy predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if all values satisfy predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean all(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return allIndices(threads, values, predicate, i -> predicate.test(values[i]));
+    }
+
+    /**
+     * Checks that any of double values satisfies predicate.
+     * @param threads number of threads.
+     * @param values values to test.
+     * @param predicate value predicate.
+     * @return {@code true} if some value satisfies predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public boolean any(int threads, double[] values, DoublePredicate predicate) throws InterruptedException {
+        return !all(threads, values, predicate.negate());
+    }
+}
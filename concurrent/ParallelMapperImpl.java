@@ -1,28 +1,150 @@
 package info.kgeorgiy.ja.lorents.concurrent;
 
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 public class ParallelMapperImpl implements ParallelMapper {
 
+    // Ranges are grown until one of them takes about this long, so cheap functions are not dominated by bookkeeping
+    private static final long TARGET_CHUNK_NANOS = 50_000;
+    // Upper bound for a range is size / (claimers * CHUNKS_PER_WORKER), to keep workers balanced at the end of a call
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * Order in which workers take map calls.
+     */
+    public enum SchedulingPolicy {
+        /**
+         * Calls are processed in order of submission: a worker takes ranges of one call until it is exhausted.
+         */
+        FIFO,
+        /**
+         * Workers process one range of a call and move it to the end of the queue,
+         * so small calls are not stuck behind large ones.
+         */
+        ROUND_ROBIN
+    }
+
+    /**
+     * How threads of the mapper run ranges of map calls.
+     */
+    public enum Execution {
+        /**
+         * Fixed set of long-lived workers, each one takes ranges of calls until the mapper is closed.
+         */
+        WORKERS,
+        /**
+         * Every claimed range runs on its own new thread, at most {@code threads} of them at once.
+         * Meant for virtual threads from {@link VirtualThreads#factory()}: a range blocked in the mapped function
+         * holds neither a worker nor a carrier thread, and idle mapper holds no threads at all.
+         */
+        THREAD_PER_RANGE
+    }
+
+    /**
+     * Priority class of map calls. A worker takes a call of lower priority only if there are no queued calls of higher one.
+     */
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
     // :NOTE: явные типы слева
-    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    // One queue per priority
+    private final List<Deque<Task<?, ?>>> tasks = new ArrayList<>();
+    // Number of permits always equals number of tasks in the queues, so idle workers park here instead of on a monitor
+    private final Semaphore available = new Semaphore(0);
+    // Workers, or the thread starting ranges in THREAD_PER_RANGE execution
     private final List<Thread> workers = new ArrayList<>();
+    private final int parallelism;
+    private final SchedulingPolicy policy;
+    private final Execution execution;
+    // THREAD_PER_RANGE execution: permits for running ranges and indices of free slots for metrics, always of equal number
+    private final Semaphore running;
+    private final Queue<Integer> idle = new ConcurrentLinkedQueue<>();
+    private final ParallelMapperMetrics metrics;
+    private volatile ObjectName objectName;
 
     /**
      * Constructor {@link ParallelMapperImpl}.
      * @param threads number of {@link Thread} used.
      */
     public ParallelMapperImpl(int threads) {
+        this(threads, Thread::new);
+    }
+
+    /**
+     * Constructor {@link ParallelMapperImpl} with custom workers.
+     * For virtual threads prefer {@link Execution#THREAD_PER_RANGE}, since a fixed set of virtual workers
+     * is still blocked by a blocking function.
+     * @param threads number of {@link Thread} used.
+     * @param factory {@link ThreadFactory} creating workers.
+     */
+    public ParallelMapperImpl(int threads, ThreadFactory factory) {
+        this(threads, factory, SchedulingPolicy.FIFO);
+    }
+
+    /**
+     * Constructor {@link ParallelMapperImpl} with custom workers and scheduling policy.
+     * @param threads number of {@link Thread} used.
+     * @param factory {@link ThreadFactory} creating workers.
+     * @param policy {@link SchedulingPolicy} of map calls.
+     */
+    public ParallelMapperImpl(int threads, ThreadFactory factory, SchedulingPolicy policy) {
+        this(threads, factory, policy, Execution.WORKERS);
+    }
+
+    /**
+     * Constructor {@link ParallelMapperImpl} with given execution of ranges.
+     * Virtual-thread mode is {@code new ParallelMapperImpl(threads, VirtualThreads.factory(), policy, Execution.THREAD_PER_RANGE)},
+     * {@link VirtualThreads#factory()} throws {@link UnsupportedOperationException} on JDK 17, that these sources target,
+     * and older ones.
+     * @param threads number of workers, or maximum number of ranges running at once for {@link Execution#THREAD_PER_RANGE}.
+     * @param factory {@link ThreadFactory} creating workers or threads of ranges.
+     * @param policy {@link SchedulingPolicy} of map calls.
+     * @param execution {@link Execution} of ranges.
+     */
+    public ParallelMapperImpl(int threads, ThreadFactory factory, SchedulingPolicy policy, Execution execution) {
         if (!(threads > 0)) {
             throw new IllegalArgumentException("Argument must be greater than zero");
         }
+        this.parallelism = threads;
+        this.policy = policy;
+        this.execution = execution;
+        for (int i = 0; i < Priority.values().length; i++) {
+            tasks.add(new ConcurrentLinkedDeque<>());
+        }
+        metrics = new ParallelMapperMetrics(threads, available::availablePermits);
+        if (execution == Execution.THREAD_PER_RANGE) {
+            running = new Semaphore(threads);
+            for (int i = 0; i < threads; i++) {
+                idle.add(i);
+            }
+            final Thread dispatcher = factory.newThread(() -> dispatch(factory));
+            workers.add(dispatcher);
+            dispatcher.start();
+            return;
+        }
+        running = null;
         for (int i = 0; i < threads; i++) {
-            final Thread thread = new Thread(() -> {
+            final int worker = i;
+            final Thread thread = factory.newThread(() -> {
                 try {
                     while (!Thread.interrupted()) {
-                        runTaskFromQueue();
+                        runTaskFromQueue(worker);
                     }
                 } catch (InterruptedException e) {
                     // ignore
@@ -35,78 +157,290 @@ public class ParallelMapperImpl implements ParallelMapper {
         }
     }
 
-    private void runTaskFromQueue() throws InterruptedException {
-        Runnable task;
-        synchronized (tasks) {
-            while (tasks.isEmpty()) {
-                tasks.wait();
+    private void runTaskFromQueue(int worker) throws InterruptedException {
+        takeTask().run(worker);
+    }
+
+    private Task<?, ?> takeTask() throws InterruptedException {
+        available.acquire();
+        Task<?, ?> task;
+        // permit guarantees a task in some queue, but it may be added to a queue already checked
+        while ((task = pollTask()) == null) {
+            Thread.onSpinWait();
+        }
+        return task;
+    }
+
+    // Starts a thread for every claimed range, while less than parallelism of them are running
+    private void dispatch(ThreadFactory factory) {
+        try {
+            while (!Thread.interrupted()) {
+                running.acquire();
+                final Task<?, ?> task;
+                try {
+                    task = takeTask();
+                } catch (InterruptedException e) {
+                    running.release();
+                    throw e;
+                }
+                final int slot = idle.remove();
+                factory.newThread(() -> {
+                    try {
+                        if (task.runRange(slot)) {
+                            // FIFO call keeps its place before later calls
+                            addTask(task, policy == SchedulingPolicy.FIFO);
+                        }
+                    } finally {
+                        idle.add(slot);
+                        running.release();
+                    }
+                }).start();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private Task<?, ?> pollTask() {
+        for (Queue<Task<?, ?>> queue : tasks) {
+            Task<?, ?> task = queue.poll();
+            if (task != null) {
+                return task;
             }
-            task = tasks.poll();
-            // :NOTE: redundant
-            tasks.notify();
         }
-        task.run();
+        return null;
+    }
+
+    private void addTask(Task<?, ?> task, boolean first) {
+        final Deque<Task<?, ?>> queue = tasks.get(task.priority.ordinal());
+        if (first) {
+            queue.addFirst(task);
+        } else {
+            queue.addLast(task);
+        }
+        available.release();
+    }
+
+    private int nextChunkSize(int maxChunk, int count, long elapsed) {
+        long chunk = count * TARGET_CHUNK_NANOS / Math.max(elapsed, 1);
+        return (int) Math.max(1, Math.min(chunk, maxChunk));
     }
 
-    private class Task<R> {
+    // Task of one map call, shared by several workers that claim ranges of arguments from it
+    private class Task<T, R> {
 
-        private final List<R> ans;
-        private int count = 0;
+        private final Function<? super T, ? extends R> function;
+        private final List<? extends T> args;
+        private final ObjIntConsumer<? super R> consumer;
+        private final Priority priority;
         private final int size;
+        private final int maxChunk;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger done = new AtomicInteger();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+        private final AtomicBoolean started = new AtomicBoolean();
+        // size of the next range, shared by workers, so that it survives moving the call through the queue
+        private volatile int chunk = 1;
 
-        public Task(final int size) {
-            this.size = size;
-            this.ans = new ArrayList<>(Collections.nCopies(size, null));
+        public Task(final Function<? super T, ? extends R> function, final List<? extends T> args,
+                    final ObjIntConsumer<? super R> consumer, final Priority priority, final int claimers) {
+            this.function = function;
+            this.args = args;
+            this.consumer = consumer;
+            this.priority = priority;
+            this.size = args.size();
+            this.maxChunk = Math.max(1, size / (claimers * CHUNKS_PER_WORKER));
         }
 
-        private boolean isDone() {
-            return count >= size;
+        // Worker takes ranges until the call is exhausted, or only one of them for ROUND_ROBIN
+        public void run(int worker) {
+            while (runRange(worker)) {
+                if (policy == SchedulingPolicy.ROUND_ROBIN) {
+                    addTask(this, false);
+                    return;
+                }
+            }
         }
 
-        synchronized void increase() {
-            count++;
+        // Processes one claimed range, returns whether there are ranges left to claim
+        public boolean runRange(int worker) {
+            if (!started.get() && started.compareAndSet(false, true)) {
+                metrics.callStarted(System.nanoTime() - submitted);
+            }
+            // first range is a single element, it is used to measure the cost of the function.
+            // range is claimed and processed with the same size, other workers may change chunk meanwhile
+            final int step = chunk;
+            final int from = next.getAndAdd(step);
+            if (from >= size) {
+                return false;
+            }
+            final int to = Math.min(size, from + step);
+            final long start = System.nanoTime();
+            try {
+                for (int i = from; i < to; i++) {
+                    consumer.accept(function.apply(args.get(i)), i);
+                }
+            } catch (RuntimeException | Error e) {
+                // other workers stop claiming ranges of failed call
+                next.set(size);
+                if (future.completeExceptionally(e)) {
+                    metrics.callFailed();
+                }
+                return false;
+            }
+            final long finish = System.nanoTime();
+            metrics.rangeProcessed(worker, to - from, finish - start);
+            chunk = nextChunkSize(maxChunk, to - from, finish - start);
+            if (done.addAndGet(to - from) >= size) {
+                metrics.callCompleted(finish - submitted);
+                future.complete(null);
+            }
+            return next.get() < size;
         }
+    }
 
-        synchronized void set(int index, final R value) {
-            ans.set(index, value);
-            increase();
-            if (isDone()) {
-                notify();
-            }
+    private <T, R> CompletableFuture<Void> submit(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                  ObjIntConsumer<? super R> consumer, Priority priority) {
+        final int claimers = Math.min(parallelism, args.size());
+        if (claimers == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Task<T, R> task = new Task<>(f, args, consumer, priority, claimers);
+        metrics.callSubmitted();
 
+        for (int i = 0; i < claimers; i++) {
+            addTask(task, false);
         }
+        return task.future;
+    }
+
+    /**
+     * Non-blocking version of {@link #map(Function, List)}.
+     * @param f function to apply.
+     * @param args arguments of function.
+     * @param <T> argument type.
+     * @param <R> result type.
+     * @return future of results in order of arguments, completed exceptionally if {@code f} throws.
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return mapAsync(f, args, Priority.NORMAL);
+    }
+
+    /**
+     * Non-blocking version of {@link #map(Function, List)} with given priority.
+     * @param f function to apply.
+     * @param args arguments of function.
+     * @param priority {@link Priority} of the call.
+     * @param <T> argument type.
+     * @param <R> result type.
+     * @return future of results in order of arguments, completed exceptionally if {@code f} throws.
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                      Priority priority) {
+        final List<R> ans = new ArrayList<>(Collections.nCopies(args.size(), null));
+        return submit(f, args, (R value, int index) -> ans.set(index, value), priority).thenApply(ignored -> ans);
+    }
+
+    /**
+     * Streaming version of {@link #map(Function, List)}: passes every result to consumer as soon as it is computed.
+     * Consumer is called from worker threads, concurrently and in no particular order.
+     * @param f function to apply.
+     * @param args arguments of function.
+     * @param consumer consumer of result and index of its argument.
+     * @param <T> argument type.
+     * @param <R> result type.
+     * @return future completed when all results are consumed, or exceptionally if {@code f} or consumer throws.
+     */
+    public <T, R> CompletableFuture<Void> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                   ObjIntConsumer<? super R> consumer) {
+        return mapAsync(f, args, consumer, Priority.NORMAL);
+    }
+
+    /**
+     * Streaming version of {@link #map(Function, List)} with given priority.
+     * @param f function to apply.
+     * @param args arguments of function.
+     * @param consumer consumer of result and index of its argument.
+     * @param priority {@link Priority} of the call.
+     * @param <T> argument type.
+     * @param <R> result type.
+     * @return future completed when all results are consumed, or exceptionally if {@code f} or consumer throws.
+     * @see #mapAsync(Function, List, ObjIntConsumer)
+     */
+    public <T, R> CompletableFuture<Void> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                   ObjIntConsumer<? super R> consumer, Priority priority) {
+        return submit(f, args, consumer, priority);
+    }
+
+    /**
+     * View of this mapper, that submits all calls with given priority, e.g. for {@link IterativeParallelism}.
+     * Closing the view does not stop workers of this mapper.
+     * @param priority {@link Priority} of calls.
+     * @return {@link ParallelMapper} sharing workers with this mapper.
+     */
+    public ParallelMapper withPriority(Priority priority) {
+        return new ParallelMapper() {
+            @Override
+            public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+                return await(ParallelMapperImpl.this.<T, R>mapAsync(f, args, priority));
+            }
 
-        synchronized List<R> getAnswer() throws InterruptedException {
-            while (!isDone()) {
-                wait();
+            @Override
+            public void close() {
+                // workers belong to the parent mapper
             }
-            return ans;
-        }
+        };
     }
 
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+        return await(this.<T, R>mapAsync(f, args));
+    }
 
-        final int size = args.size();
-        Task<R> task = new Task<>(size);
-
-        for (int i = 0; i < size; i++) {
-            final int index = i;
-            Runnable tmp = () -> {
-                task.set(index, f.apply(args.get(index)));
-            };
-            synchronized (tasks) {
-                tasks.add(tmp);
-                tasks.notify();
+    private static <R> List<R> await(CompletableFuture<List<R>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw (RuntimeException) cause;
         }
-        return task.getAnswer();
     }
 
 
 
+    /**
+     * Metrics of this mapper, aggregated on every read.
+     * @return {@link ParallelMapperMetrics} of this mapper.
+     */
+    public ParallelMapperMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers metrics of this mapper in platform MBean server, until mapper is closed.
+     * @param name name of this mapper in {@link ObjectName} of MBean.
+     * @throws JMException if MBean can not be registered.
+     */
+    public void registerMBean(String name) throws JMException {
+        final ObjectName objectName = new ObjectName(getClass().getPackageName()
+                + ":type=ParallelMapperImpl,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        this.objectName = objectName;
+    }
+
     @Override
     public void close() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                System.err.println("Unable to unregister MBean " + e.getMessage());
+            }
+        }
         for (Thread thread : workers) {
             thread.interrupt();
         }
@@ -117,6 +451,9 @@ public class ParallelMapperImpl implements ParallelMapper {
                 e.printStackTrace();
             }
         }
+        if (execution == Execution.THREAD_PER_RANGE) {
+            // running ranges finish their work
+            running.acquireUninterruptibly(parallelism);
+        }
     }
 }
-
@@ -0,0 +1,171 @@
+package info.kgeorgiy.ja.lorents.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of one {@link ParallelMapperImpl}.
+ * Workers only add to striped counters, per range of elements rather than per element,
+ * all aggregation happens in getters, so metrics cost nothing while nobody reads them.
+ */
+public class ParallelMapperMetrics implements ParallelMapperMetricsMBean {
+
+    private static final int BUCKETS = Long.SIZE;
+
+    private final long created = System.nanoTime();
+    private final IntSupplier queueDepth;
+    private final LongAdder submittedCalls = new LongAdder();
+    private final LongAdder completedCalls = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder processedElements = new LongAdder();
+    // every slot is written only by its own worker
+    private final AtomicLongArray workerBusyNanos;
+    private final AtomicLongArray queueWait = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray callLatency = new AtomicLongArray(BUCKETS);
+
+    ParallelMapperMetrics(int workers, IntSupplier queueDepth) {
+        this.workerBusyNanos = new AtomicLongArray(workers);
+        this.queueDepth = queueDepth;
+    }
+
+    private static void record(AtomicLongArray histogram, long nanos) {
+        histogram.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+    }
+
+    private static long[] toArray(AtomicLongArray array) {
+        long[] result = new long[array.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = array.get(i);
+        }
+        return result;
+    }
+
+    private static long percentile(AtomicLongArray histogram, double percentile) {
+        long[] counts = toArray(histogram);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= percentile * total) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    private double perSecond(long count) {
+        return count * 1e9 / Math.max(System.nanoTime() - created, 1);
+    }
+
+    void callSubmitted() {
+        submittedCalls.increment();
+    }
+
+    void callCompleted(long nanos) {
+        completedCalls.increment();
+        record(callLatency, nanos);
+    }
+
+    void callFailed() {
+        failedCalls.increment();
+    }
+
+    void callStarted(long waitNanos) {
+        record(queueWait, waitNanos);
+    }
+
+    void rangeProcessed(int worker, int elements, long nanos) {
+        processedElements.add(elements);
+        workerBusyNanos.addAndGet(worker, nanos);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getActiveCalls() {
+        return getSubmittedCalls() - getCompletedCalls() - getFailedCalls();
+    }
+
+    @Override
+    public long getSubmittedCalls() {
+        return submittedCalls.sum();
+    }
+
+    @Override
+    public long getCompletedCalls() {
+        return completedCalls.sum();
+    }
+
+    @Override
+    public long getFailedCalls() {
+        return failedCalls.sum();
+    }
+
+    @Override
+    public long getProcessedElements() {
+        return processedElements.sum();
+    }
+
+    @Override
+    public double getCallsPerSecond() {
+        return perSecond(getCompletedCalls());
+    }
+
+    @Override
+    public double getElementsPerSecond() {
+        return perSecond(getProcessedElements());
+    }
+
+    @Override
+    public long[] getWorkerBusyNanos() {
+        return toArray(workerBusyNanos);
+    }
+
+    @Override
+    public double[] getWorkerUtilization() {
+        final long uptime = Math.max(System.nanoTime() - created, 1);
+        final long[] busy = getWorkerBusyNanos();
+        final double[] result = new double[busy.length];
+        for (int i = 0; i < busy.length; i++) {
+            result[i] = (double) busy[i] / uptime;
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getQueueWaitHistogram() {
+        return toArray(queueWait);
+    }
+
+    @Override
+    public long getQueueWaitP50Nanos() {
+        return percentile(queueWait, 0.5);
+    }
+
+    @Override
+    public long getQueueWaitP99Nanos() {
+        return percentile(queueWait, 0.99);
+    }
+
+    @Override
+    public long[] getCallLatencyHistogram() {
+        return toArray(callLatency);
+    }
+
+    @Override
+    public long getCallLatencyP50Nanos() {
+        return percentile(callLatency, 0.5);
+    }
+
+    @Override
+    public long getCallLatencyP99Nanos() {
+        return percentile(callLatency, 0.99);
+    }
+}
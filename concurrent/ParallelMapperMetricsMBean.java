@@ -0,0 +1,88 @@
+package info.kgeorgiy.ja.lorents.concurrent;
+
+/**
+ * JMX view of {@link ParallelMapperMetrics}.
+ * Histograms have one bucket per power of two: bucket {@code i} counts durations in {@code [2^i, 2^(i+1))} nanoseconds.
+ */
+public interface ParallelMapperMetricsMBean {
+
+    /**
+     * @return number of queue entries of map calls waiting for a worker.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return number of map calls submitted and not finished yet.
+     */
+    long getActiveCalls();
+
+    /**
+     * @return number of submitted map calls.
+     */
+    long getSubmittedCalls();
+
+    /**
+     * @return number of map calls finished successfully.
+     */
+    long getCompletedCalls();
+
+    /**
+     * @return number of map calls finished with exception.
+     */
+    long getFailedCalls();
+
+    /**
+     * @return number of processed elements.
+     */
+    long getProcessedElements();
+
+    /**
+     * @return average number of finished map calls per second since creation.
+     */
+    double getCallsPerSecond();
+
+    /**
+     * @return average number of processed elements per second since creation.
+     */
+    double getElementsPerSecond();
+
+    /**
+     * @return time each worker spent applying functions, in nanoseconds.
+     */
+    long[] getWorkerBusyNanos();
+
+    /**
+     * @return part of time since creation each worker spent applying functions.
+     */
+    double[] getWorkerUtilization();
+
+    /**
+     * @return histogram of time between submitting a map call and a worker starting it.
+     */
+    long[] getQueueWaitHistogram();
+
+    /**
+     * @return upper bound of median queue wait, in nanoseconds.
+     */
+    long getQueueWaitP50Nanos();
+
+    /**
+     * @return upper bound of 99th percentile of queue wait, in nanoseconds.
+     */
+    long getQueueWaitP99Nanos();
+
+    /**
+     * @return histogram of time between submitting a map call and its completion.
+     */
+    long[] getCallLatencyHistogram();
+
+    /**
+     * @return upper bound of median map call latency, in nanoseconds.
+     */
+    long getCallLatencyP50Nanos();
+
+    /**
+     * @return upper bound of 99th percentile of map call latency, in nanoseconds.
+     */
+    long getCallLatencyP99Nanos();
+}
@@ -0,0 +1,153 @@
+package info.kgeorgiy.ja.lorents.concurrent;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class Tests {
+    private static final int WORKERS = 8;
+    private static final int SIZE = 20_000;
+    private static final int CALLS = 500;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final List<Integer> ARGS = IntStream.range(0, SIZE).boxed().collect(Collectors.toList());
+
+    // Cost of element jumps between cheap and expensive, so that adaptive range size changes while workers claim ranges
+    private static int work(int value) {
+        int cost = (value / 100) % 3 == 0 ? 5000 : value % 7;
+        int result = value;
+        for (int i = 0; i < cost; i++) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+
+    private static Function<Integer, Integer> counting(AtomicIntegerArray applied) {
+        return value -> {
+            applied.incrementAndGet(value);
+            work(value);
+            return value;
+        };
+    }
+
+    private static void assertAppliedOnce(AtomicIntegerArray applied) {
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals("applications of element " + i, 1, applied.get(i));
+        }
+    }
+
+    private static void checkMapAsync(ParallelMapperImpl mapper) throws InterruptedException, ExecutionException, TimeoutException {
+        for (int call = 0; call < CALLS; call++) {
+            AtomicIntegerArray applied = new AtomicIntegerArray(SIZE);
+            CompletableFuture<List<Integer>> future = mapper.mapAsync(counting(applied), ARGS);
+            List<Integer> result = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // every element is applied before the future completes
+            assertAppliedOnce(applied);
+            assertEquals(ARGS, result);
+        }
+    }
+
+    @Test
+    public void testEveryElementOnce() throws InterruptedException, ExecutionException, TimeoutException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS)) {
+            checkMapAsync(mapper);
+        }
+    }
+
+    @Test
+    public void testEveryElementOnceRoundRobin() throws InterruptedException, ExecutionException, TimeoutException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS, Executors.defaultThreadFactory(),
+                ParallelMapperImpl.SchedulingPolicy.ROUND_ROBIN)) {
+            checkMapAsync(mapper);
+        }
+    }
+
+    @Test
+    public void testEveryElementOnceThreadPerRange() throws InterruptedException, ExecutionException, TimeoutException {
+        for (ParallelMapperImpl.SchedulingPolicy policy : ParallelMapperImpl.SchedulingPolicy.values()) {
+            try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS, Executors.defaultThreadFactory(),
+                    policy, ParallelMapperImpl.Execution.THREAD_PER_RANGE)) {
+                checkMapAsync(mapper);
+            }
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws InterruptedException, ExecutionException, TimeoutException {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.factory();
+                fail("Virtual threads are reported as not supported");
+            } catch (UnsupportedOperationException ignored) {
+            }
+            return;
+        }
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS, VirtualThreads.factory(),
+                ParallelMapperImpl.SchedulingPolicy.FIFO, ParallelMapperImpl.Execution.THREAD_PER_RANGE)) {
+            checkMapAsync(mapper);
+        }
+        AtomicIntegerArray applied = new AtomicIntegerArray(SIZE);
+        assertEquals(ARGS, VirtualThreads.sharedMapper().map(counting(applied), ARGS));
+        assertAppliedOnce(applied);
+    }
+
+    // Function blocked in all ranges of one call does not stop other calls
+    @Test
+    public void testBlockingFunctionThreadPerRange() throws InterruptedException, ExecutionException, TimeoutException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS, Executors.defaultThreadFactory(),
+                ParallelMapperImpl.SchedulingPolicy.FIFO, ParallelMapperImpl.Execution.THREAD_PER_RANGE)) {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CompletableFuture<List<Integer>> blocked = mapper.mapAsync(value -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return value;
+            }, ARGS.subList(0, WORKERS - 1));
+            AtomicIntegerArray applied = new AtomicIntegerArray(SIZE);
+            assertEquals(ARGS, mapper.mapAsync(counting(applied), ARGS).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertAppliedOnce(applied);
+            assertFalse(blocked.isDone());
+            release.countDown();
+            assertEquals(ARGS.subList(0, WORKERS - 1), blocked.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testConcurrentCalls() throws InterruptedException, ExecutionException, TimeoutException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS)) {
+            List<AtomicIntegerArray> applied = IntStream.range(0, CALLS)
+                    .mapToObj(i -> new AtomicIntegerArray(SIZE))
+                    .collect(Collectors.toList());
+            List<CompletableFuture<List<Integer>>> futures = applied.stream()
+                    .map(counter -> mapper.mapAsync(counting(counter), ARGS))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < CALLS; i++) {
+                assertEquals(ARGS, futures.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                assertAppliedOnce(applied.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMap() throws InterruptedException {
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(WORKERS)) {
+            AtomicIntegerArray applied = new AtomicIntegerArray(SIZE);
+            assertEquals(ARGS, mapper.map(counting(applied), ARGS));
+            assertAppliedOnce(applied);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package info.kgeorgiy.ja.lorents.concurrent;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads without compile-time dependency on JDK 21.
+ * Virtual threads share the JDK carrier scheduler, so starting one costs far less than a platform {@link Thread}
+ * and blocking one does not take a carrier away from others.
+ */
+public final class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the running JVM supports virtual threads.
+     * @return {@code true} if {@link #factory()} may be used.
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Factory of virtual threads, suitable for {@link ParallelMapperImpl} and {@link IterativeParallelism}.
+     * @return {@link ThreadFactory} creating virtual threads.
+     * @throws UnsupportedOperationException if virtual threads are not available in the running JVM.
+     */
+    public static ThreadFactory factory() {
+        if (FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        return FACTORY;
+    }
+
+    /**
+     * Number of carrier threads of the JDK virtual thread scheduler.
+     * @return value of {@code jdk.virtualThreadScheduler.parallelism}, or number of processors by default.
+     */
+    public static int carriers() {
+        return Math.max(1, Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Created on first use, so that JVMs without virtual threads do not fail on loading of this class
+    private static final class Shared {
+        private static final ParallelMapperImpl MAPPER = new ParallelMapperImpl(carriers(), factory(),
+                ParallelMapperImpl.SchedulingPolicy.FIFO, ParallelMapperImpl.Execution.THREAD_PER_RANGE);
+    }
+
+    /**
+     * Mapper shared by all its users in this JVM, e.g. by several {@link IterativeParallelism} instances.
+     * Every range runs on its own virtual thread and at most {@link #carriers()} of them run at once,
+     * so users together never run more ranges than there are carriers, and none of them starts threads of its own.
+     * For blocking functions, use own {@link ParallelMapperImpl} with {@link ParallelMapperImpl.Execution#THREAD_PER_RANGE}
+     * and a larger number of threads instead.
+     * Closing the returned mapper does nothing.
+     * @return shared {@link ParallelMapper}.
+     * @throws UnsupportedOperationException if virtual threads are not available in the running JVM, e.g. on JDK 17.
+     */
+    public static ParallelMapper sharedMapper() {
+        factory();
+        return Shared.MAPPER.withPriority(ParallelMapperImpl.Priority.NORMAL);
+    }
+}
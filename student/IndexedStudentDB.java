@@ -0,0 +1,109 @@
+package info.kgeorgiy.ja.lorents.student;
+
+import info.kgeorgiy.java.advanced.student.GroupName;
+import info.kgeorgiy.java.advanced.student.Student;
+
+import java.util.*;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * {@link StudentDB} over a fixed roster, with hash indexes on first name, last name and group.
+ * Postings of every index are sorted by name once at construction, so lookups cost O(1) plus the size of the result.
+ * Queries over {@link #getStudents()} use the indexes, queries over other collections scan them as {@link StudentDB} does.
+ */
+public class IndexedStudentDB extends StudentDB {
+
+    private final List<Student> students;
+    private final Map<String, List<Student>> byFirstName;
+    private final Map<String, List<Student>> byLastName;
+    private final Map<GroupName, List<Student>> byGroup;
+
+    /**
+     * Builds indexes over a snapshot of students, later changes of the collection are not seen.
+     * @param students roster of students.
+     */
+    public IndexedStudentDB(Collection<Student> students) {
+        this.students = List.copyOf(students);
+        final List<Student> sorted = sortStudentsByName(this.students);
+        this.byFirstName = index(sorted, Student::getFirstName);
+        this.byLastName = index(sorted, Student::getLastName);
+        this.byGroup = index(sorted, Student::getGroup);
+    }
+
+    // Postings keep order of sorted students
+    private static <K> Map<K, List<Student>> index(List<Student> sorted, Function<Student, K> key) {
+        return sorted.stream().collect(Collectors.groupingBy(key, HashMap::new,
+                Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList)));
+    }
+
+    /**
+     * Roster of this database, queries over it use indexes.
+     * @return unmodifiable list of students.
+     */
+    public List<Student> getStudents() {
+        return students;
+    }
+
+    /**
+     * Students with given first name.
+     * @param name first name.
+     * @return unmodifiable list of students, sorted by name.
+     */
+    public List<Student> findStudentsByFirstName(String name) {
+        return byFirstName.getOrDefault(name, List.of());
+    }
+
+    /**
+     * Students with given last name.
+     * @param name last name.
+     * @return unmodifiable list of students, sorted by name.
+     */
+    public List<Student> findStudentsByLastName(String name) {
+        return byLastName.getOrDefault(name, List.of());
+    }
+
+    /**
+     * Students of given group.
+     * @param group group.
+     * @return unmodifiable list of students, sorted by name.
+     */
+    public List<Student> findStudentsByGroup(GroupName group) {
+        return byGroup.getOrDefault(group, List.of());
+    }
+
+    /**
+     * Names of students of given group, the least first name for every last name.
+     * @param group group.
+     * @return map from last names to first names.
+     */
+    public Map<String, String> findStudentNamesByGroup(GroupName group) {
+        return findStudentsByGroup(group).stream()
+                .collect(Collectors.toMap(Student::getLastName, Student::getFirstName, BinaryOperator.minBy(String::compareTo)));
+    }
+
+    @Override
+    public List<Student> findStudentsByFirstName(Collection<Student> students, String name) {
+        return students == this.students ? new ArrayList<>(findStudentsByFirstName(name))
+                : super.findStudentsByFirstName(students, name);
+    }
+
+    @Override
+    public List<Student> findStudentsByLastName(Collection<Student> students, String name) {
+        return students == this.students ? new ArrayList<>(findStudentsByLastName(name))
+                : super.findStudentsByLastName(students, name);
+    }
+
+    @Override
+    public List<Student> findStudentsByGroup(Collection<Student> students, GroupName group) {
+        return students == this.students ? new ArrayList<>(findStudentsByGroup(group))
+                : super.findStudentsByGroup(students, group);
+    }
+
+    @Override
+    public Map<String, String> findStudentNamesByGroup(Collection<Student> students, GroupName group) {
+        return students == this.students ? findStudentNamesByGroup(group)
+                : super.findStudentNamesByGroup(students, group);
+    }
+}
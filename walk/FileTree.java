@@ -0,0 +1,176 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Files of given roots, with directories expanded recursively, in the same order as {@link Files#walkFileTree}.
+ * Directories are listed by fork-join tasks, so subtrees are traversed in parallel
+ * and the first files are available before the traversal ends. Symbolic links are not followed.
+ * At most {@link #MAX_PENDING} listings are started ahead of the consumer, a directory not started by then
+ * is listed when the consumer reaches it, so memory does not grow with the size of the tree.
+ */
+class FileTree implements Iterator<String> {
+
+    private static final int MAX_PENDING = 256;
+
+    // Directory entries: names of files and listings of subdirectories, in directory order
+    @SuppressWarnings("serial")
+    private final class Listing extends RecursiveAction {
+        private final Path directory;
+        private final List<Object> entries = new ArrayList<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        // written before fork, read by the consumer after join
+        private boolean holdsPermit;
+
+        private Listing(Path directory) {
+            this.directory = directory;
+        }
+
+        // Subdirectories are started only when the whole directory is listed,
+        // so that a failed listing does not leave started listings nobody awaits
+        @Override
+        protected void compute() {
+            final List<Object> listed = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    listed.add(isDirectory(path) ? new Listing(path) : path.toString());
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // unreadable directory is reported as a file that can not be hashed
+                entries.add(directory.toString());
+                return;
+            }
+            for (Object entry : listed) {
+                if (entry instanceof Listing) {
+                    ((Listing) entry).tryStart();
+                }
+            }
+            entries.addAll(listed);
+        }
+
+        // Starts listing in background, if there are not too many pending listings already
+        private void tryStart() {
+            if (!pending.tryAcquire()) {
+                return;
+            }
+            if (!started.compareAndSet(false, true)) {
+                pending.release();
+                return;
+            }
+            holdsPermit = true;
+            if (inForkJoinPool()) {
+                fork();
+            } else {
+                pool.execute(this);
+            }
+        }
+
+        // Entries of directory, listed by the caller if listing was not started yet
+        private List<Object> await() {
+            if (started.compareAndSet(false, true)) {
+                pool.invoke(this);
+            } else {
+                join();
+            }
+            if (holdsPermit) {
+                pending.release();
+            }
+            return entries;
+        }
+    }
+
+    private final Iterator<String> roots;
+    private final ForkJoinPool pool;
+    // permits for listings started ahead of the consumer
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    // iterators over listings of the current root, from outermost to innermost
+    private final Deque<Iterator<Object>> stack = new ArrayDeque<>();
+    private String next;
+
+    /**
+     * Creates lazy iterator over files of roots.
+     * @param roots files and directories to walk.
+     * @param pool pool listing directories.
+     */
+    FileTree(Iterator<String> roots, ForkJoinPool pool) {
+        this.roots = roots;
+        this.pool = pool;
+    }
+
+    private static boolean isDirectory(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String advance() {
+        while (true) {
+            while (!stack.isEmpty()) {
+                Iterator<Object> iterator = stack.peek();
+                if (!iterator.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Object entry = iterator.next();
+                if (entry instanceof Listing) {
+                    List<Object> entries = ((Listing) entry).await();
+                    // subdirectories skipped while there were too many pending listings are needed soon
+                    for (Object subdirectory : entries) {
+                        if (subdirectory instanceof Listing) {
+                            ((Listing) subdirectory).tryStart();
+                        }
+                    }
+                    stack.push(entries.iterator());
+                } else {
+                    return (String) entry;
+                }
+            }
+            if (!roots.hasNext()) {
+                return null;
+            }
+            String root = roots.next();
+            final Path path;
+            try {
+                path = Path.of(root);
+            } catch (InvalidPathException e) {
+                return root;
+            }
+            if (!isDirectory(path)) {
+                return root;
+            }
+            stack.push(List.<Object>of(new Listing(path)).iterator());
+        }
+    }
+
+    // Listings started ahead of the consumer and not consumed yet
+    int pendingListings() {
+        return MAX_PENDING - pending.availablePermits();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String result = next;
+        next = null;
+        return result;
+    }
+}
@@ -0,0 +1,201 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of file hashes for incremental {@link Walk}.
+ * Hash of a file is reused while its size, modification time and file key (inode) stay the same.
+ * Only files looked up during the run are kept, and the cache file is replaced atomically by {@link #flush()}.
+ * Lookups and stores may be called concurrently.
+ */
+class HashCache {
+
+    private static final long MAGIC = 0x3148_5341_484B_4C57L; // "WLKHASH1"
+
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final String key;
+        private final byte[] digest;
+
+        private Entry(long size, long modified, String key, byte[] digest) {
+            this.size = size;
+            this.modified = modified;
+            this.key = key;
+            this.digest = digest;
+        }
+
+        private Entry(BasicFileAttributes attributes, byte[] digest) {
+            this(attributes.size(), modified(attributes), Objects.toString(attributes.fileKey(), ""), digest);
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modified == modified(attributes)
+                    && key.equals(Objects.toString(attributes.fileKey(), ""));
+        }
+    }
+
+    private final Path file;
+    private final String algorithms;
+    private final int length;
+    // entries of the previous run, read-only
+    private final Map<String, Entry> previous;
+    // entries of this run, written back on flush
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    // files modified after this moment may change again within the same timestamp, so they are not cached
+    private final long started = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+
+    private HashCache(Path file, String algorithms, int length, Map<String, Entry> previous) {
+        this.file = file;
+        this.algorithms = algorithms;
+        this.length = length;
+        this.previous = previous;
+    }
+
+    private static long modified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().toString();
+    }
+
+    /**
+     * Empty cache, that will be written to given file.
+     * @param file cache file.
+     * @param algorithms hash algorithms of cached values.
+     * @param length total length of hashes of one file.
+     * @return empty cache.
+     */
+    static HashCache empty(Path file, String[] algorithms, int length) {
+        return new HashCache(file, String.join(",", algorithms), length, Map.of());
+    }
+
+    /**
+     * Reads cache file. Cache is empty if the file does not exist or was written for other algorithms.
+     * @param file cache file.
+     * @param algorithms hash algorithms of cached values.
+     * @param length total length of hashes of one file.
+     * @return cache backed by the file.
+     * @throws IOException if cache file exists but can not be read.
+     */
+    static HashCache load(Path file, String[] algorithms, int length) throws IOException {
+        final String names = String.join(",", algorithms);
+        final Map<String, Entry> entries = new HashMap<>();
+        if (Files.notExists(file)) {
+            return empty(file, algorithms, length);
+        }
+        // lengths read from the file are checked against its size, so a corrupted one can not cause a huge allocation
+        final long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not a hash cache file: " + file);
+            }
+            if (names.equals(in.readUTF()) && in.readInt() == length) {
+                int count = in.readInt();
+                if (count < 0 || count > fileSize / (2 * Integer.BYTES + 2 * Long.BYTES + length)) {
+                    throw new IOException("Corrupted hash cache file: " + file);
+                }
+                for (; count > 0; count--) {
+                    String path = readString(in, fileSize, file);
+                    long size = in.readLong();
+                    long modified = in.readLong();
+                    String key = readString(in, fileSize, file);
+                    byte[] digest = new byte[length];
+                    in.readFully(digest);
+                    entries.put(path, new Entry(size, modified, key, digest));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Corrupted hash cache file: " + file, e);
+        }
+        return new HashCache(file, names, length, entries);
+    }
+
+    private static String readString(DataInputStream in, long fileSize, Path file) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > fileSize) {
+            throw new IOException("Corrupted hash cache file: " + file);
+        }
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Copies cached hash of unchanged file to digest.
+     * @param path file.
+     * @param attributes current attributes of the file.
+     * @param digest array for hashes.
+     * @return {@code true} if hash was found.
+     */
+    boolean lookup(Path path, BasicFileAttributes attributes, byte[] digest) {
+        String key = key(path);
+        Entry entry = previous.get(key);
+        if (entry == null || !entry.matches(attributes)) {
+            return false;
+        }
+        System.arraycopy(entry.digest, 0, digest, 0, length);
+        current.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Remembers hash of file.
+     * @param path file.
+     * @param attributes attributes of the file, read before it was hashed.
+     * @param digest hashes of the file.
+     */
+    void store(Path path, BasicFileAttributes attributes, byte[] digest) {
+        if (modified(attributes) < started) {
+            current.put(key(path), new Entry(attributes, Arrays.copyOf(digest, length)));
+        }
+    }
+
+    /**
+     * Writes hashes of files looked up during this run next to the cache file and moves them over it.
+     * @throws IOException if cache can not be written.
+     */
+    void flush() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeLong(MAGIC);
+            out.writeUTF(algorithms);
+            out.writeInt(length);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().modified);
+                writeString(out, entry.getValue().key);
+                out.write(entry.getValue().digest);
+            }
+            out.flush();
+            // cache should be on disk before it replaces the old one
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
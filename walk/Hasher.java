@@ -0,0 +1,124 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * Incremental hash function of file contents, used by {@link Walk}.
+ * Instances are not thread-safe, every thread should use its own.
+ */
+interface Hasher {
+
+    /**
+     * Adds remaining bytes of buffer to hashed data. Position of buffer is moved to its limit.
+     * @param buffer data to hash.
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Length of hash value in bytes.
+     * @return length of hash.
+     */
+    int length();
+
+    /**
+     * Writes hash of data added since the last reset and resets this hasher.
+     * @param hash array for hash value, big-endian.
+     * @param offset position of hash in array.
+     */
+    void digest(byte[] hash, int offset);
+
+    /**
+     * Drops data added since the last reset.
+     */
+    void reset();
+
+    /**
+     * Hasher by name: CRC32C, XXH64 or any {@link MessageDigest} algorithm, such as SHA-1 or SHA-256.
+     * @param algorithm name of algorithm, case-insensitive.
+     * @return new hasher.
+     * @throws NoSuchAlgorithmException if there is no such algorithm.
+     */
+    static Hasher forName(String algorithm) throws NoSuchAlgorithmException {
+        if (algorithm.equalsIgnoreCase("CRC32C")) {
+            return crc32c();
+        } else if (algorithm.equalsIgnoreCase("XXH64")) {
+            return new XxHash64();
+        }
+        return of(MessageDigest.getInstance(algorithm));
+    }
+
+    /**
+     * Hashers by names, see {@link #forName(String)}.
+     * @param algorithms names of algorithms.
+     * @return new hashers in the same order.
+     * @throws NoSuchAlgorithmException if some algorithm does not exist.
+     */
+    static Hasher[] forNames(String... algorithms) throws NoSuchAlgorithmException {
+        Hasher[] hashers = new Hasher[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            hashers[i] = forName(algorithms[i]);
+        }
+        return hashers;
+    }
+
+    private static Hasher of(MessageDigest md) {
+        return new Hasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                md.update(buffer);
+            }
+
+            @Override
+            public int length() {
+                return md.getDigestLength();
+            }
+
+            @Override
+            public void digest(byte[] hash, int offset) {
+                try {
+                    md.digest(hash, offset, length());
+                } catch (DigestException e) {
+                    throw new IllegalStateException("Unable to digest " + e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void reset() {
+                md.reset();
+            }
+        };
+    }
+
+    private static Hasher crc32c() {
+        final CRC32C crc = new CRC32C();
+        return new Hasher() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                crc.update(buffer);
+            }
+
+            @Override
+            public int length() {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void digest(byte[] hash, int offset) {
+                long value = crc.getValue();
+                for (int i = 0; i < Integer.BYTES; i++) {
+                    hash[offset + i] = (byte) (value >>> (8 * (Integer.BYTES - 1 - i)));
+                }
+                crc.reset();
+            }
+
+            @Override
+            public void reset() {
+                crc.reset();
+            }
+        };
+    }
+}
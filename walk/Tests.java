@@ -0,0 +1,120 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class Tests {
+    private static final int THREADS = 4;
+    // more directories than listings started ahead of the consumer
+    private static final int DIRECTORIES = 1000;
+
+    private static List<Path> createTree(Path root, Random random) throws IOException {
+        List<Path> directories = new ArrayList<>(List.of(root));
+        for (int i = 0; i < DIRECTORIES; i++) {
+            Path parent = directories.get(random.nextInt(directories.size()));
+            directories.add(Files.createDirectory(parent.resolve("d" + i)));
+        }
+        for (Path directory : directories) {
+            for (int i = random.nextInt(4); i > 0; i--) {
+                Files.writeString(directory.resolve("f" + i), directory.toString());
+            }
+        }
+        return directories;
+    }
+
+    // Files in order of Files.walkFileTree, unreadable directories are listed as files
+    private static List<String> walkFileTree(Path root) throws IOException {
+        List<String> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                files.add(file.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static List<String> fileTree(Path root) {
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            FileTree tree = new FileTree(List.of(root.toString()).iterator(), pool);
+            List<String> files = new ArrayList<>();
+            tree.forEachRemaining(files::add);
+            assertEquals("listings left pending", 0, tree.pendingListings());
+            return files;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testFileTreeOrder() throws IOException {
+        Path root = Files.createTempDirectory("walk");
+        try {
+            createTree(root, new Random(3405691582L));
+            assertEquals(walkFileTree(root), fileTree(root));
+        } finally {
+            delete(root);
+        }
+    }
+
+    // Unreadable directories are denied only to non-root users
+    @Test
+    public void testFileTreeUnreadableSubdirectories() throws IOException {
+        Path root = Files.createTempDirectory("walk");
+        Random random = new Random(3735928559L);
+        List<Path> unreadable = new ArrayList<>();
+        try {
+            List<Path> directories = createTree(root, random);
+            // subdirectories are created after parents, so they are closed first
+            for (Path directory : directories.subList(1, directories.size())) {
+                if (random.nextInt(3) == 0) {
+                    unreadable.add(0, directory);
+                }
+            }
+            for (Path directory : unreadable) {
+                Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("---------"));
+            }
+            List<String> expected = walkFileTree(root);
+            for (int round = 0; round < 3; round++) {
+                assertEquals(expected, fileTree(root));
+            }
+            Path last = unreadable.get(unreadable.size() - 1);
+            if (!Files.isReadable(last)) {
+                assertTrue(expected.contains(last.toString()));
+            }
+        } finally {
+            for (int i = unreadable.size() - 1; i >= 0; i--) {
+                Files.setPosixFilePermissions(unreadable.get(i), PosixFilePermissions.fromString("rwx------"));
+            }
+            delete(root);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tree hash of file contents: Merkle tree over {@link #CHUNK}-byte chunks, hashed concurrently from memory-mapped regions.
+ * Leaf is hash of byte 0 followed by a chunk, node is hash of byte 1 followed by hashes of its children.
+ * Left subtree of a tree over {@code n > 1} chunks holds the largest power of two less than {@code n} chunks, as in RFC 6962.
+ * File of at most one chunk, including an empty file, has hash of its only leaf.
+ * Values never match plain hashes of the same algorithm, so they are labelled by {@link #label(String)}.
+ */
+class TreeHash {
+
+    static final int CHUNK = 1 << 20;
+    private static final int SEGMENT = 1 << 30;
+    private static final int CHUNKS_PER_SEGMENT = SEGMENT / CHUNK;
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    // Hashers and buffers of one thread
+    private static final class State {
+        private final Hasher[] hashers;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer prefix;
+
+        private State(Hasher[] hashers) {
+            this.hashers = hashers;
+            this.prefix = ByteBuffer.allocate(1 + 2 * Arrays.stream(hashers).mapToInt(Hasher::length).max().orElse(0));
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<State> states;
+    private final int length;
+    private final WalkMetrics metrics;
+
+    /**
+     * Creates tree hash of given algorithms.
+     * @param algorithms hash algorithms of chunks and nodes, see {@link Hasher#forName(String)}.
+     * @param pool pool hashing chunks of large files.
+     * @param metrics metrics of hashed files.
+     * @throws NoSuchAlgorithmException if some algorithm does not exist.
+     */
+    TreeHash(String[] algorithms, ForkJoinPool pool, WalkMetrics metrics) throws NoSuchAlgorithmException {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.length = Walk.length(Hasher.forNames(algorithms));
+        this.states = ThreadLocal.withInitial(() -> {
+            try {
+                return new State(Hasher.forNames(algorithms));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("No such Algorithm " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Label of tree hash values of given algorithm.
+     * @param algorithm hash algorithm.
+     * @return label.
+     */
+    static String label(String algorithm) {
+        return algorithm + "-tree";
+    }
+
+    private static void digest(Hasher[] hashers, byte[] digest) {
+        int offset = 0;
+        for (Hasher hasher : hashers) {
+            hasher.digest(digest, offset);
+            offset += hasher.length();
+        }
+    }
+
+    private byte[] leaf(ByteBuffer chunk) {
+        State state = states.get();
+        Walk.update(state.hashers, state.prefix.clear().put(LEAF).flip());
+        try {
+            Walk.update(state.hashers, chunk);
+        } catch (InternalError e) {
+            // chunk is past the end of file truncated meanwhile, hashers of this thread are used for other files
+            for (Hasher hasher : state.hashers) {
+                hasher.reset();
+            }
+            throw e;
+        }
+        byte[] digest = new byte[length];
+        digest(state.hashers, digest);
+        return digest;
+    }
+
+    private byte[] node(byte[] left, byte[] right) {
+        State state = states.get();
+        byte[] digest = new byte[length];
+        int offset = 0;
+        for (Hasher hasher : state.hashers) {
+            int size = hasher.length();
+            state.prefix.clear().put(NODE).put(left, offset, size).put(right, offset, size).flip();
+            hasher.update(state.prefix);
+            hasher.digest(digest, offset);
+            offset += size;
+        }
+        return digest;
+    }
+
+    // Subtree over chunks [from, to) of a mapped file
+    @SuppressWarnings("serial")
+    private final class Subtree extends RecursiveTask<byte[]> {
+        private final ByteBuffer[] segments;
+        private final long size;
+        private final long from;
+        private final long to;
+
+        private Subtree(ByteBuffer[] segments, long size, long from, long to) {
+            this.segments = segments;
+            this.size = size;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            if (to - from == 1) {
+                ByteBuffer segment = segments[(int) (from / CHUNKS_PER_SEGMENT)].duplicate();
+                int offset = (int) (from % CHUNKS_PER_SEGMENT) * CHUNK;
+                segment.position(offset).limit(offset + (int) Math.min(CHUNK, size - from * CHUNK));
+                return leaf(segment);
+            }
+            long half = Long.highestOneBit(to - from - 1);
+            Subtree left = new Subtree(segments, size, from, from + half);
+            left.fork();
+            byte[] right = new Subtree(segments, size, from + half, to).compute();
+            return node(left.join(), right);
+        }
+    }
+
+    /**
+     * Writes tree hashes of file to digest, or zeros if file can not be read.
+     * @param file file to hash.
+     * @param digest array for hashes, one after another.
+     * @return {@code true} if file was hashed.
+     */
+    boolean hash(Path file, byte[] digest) {
+        final long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long now = System.nanoTime();
+            metrics.opened(now - start);
+            long size = channel.size();
+            if (size <= CHUNK) {
+                smallFile(channel, digest, now);
+            } else {
+                ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT - 1) / SEGMENT)];
+                for (int i = 0; i < segments.length; i++) {
+                    long position = (long) i * SEGMENT;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT, size - position));
+                }
+                final byte[] result;
+                try {
+                    result = pool.invoke(new Subtree(segments, size, 0, (size + CHUNK - 1) / CHUNK));
+                } catch (InternalError e) {
+                    throw new IOException("File was truncated while reading: " + file, e);
+                }
+                System.arraycopy(result, 0, digest, 0, length);
+                metrics.read(size, 0);
+                metrics.digested(System.nanoTime() - now);
+            }
+            metrics.hashed(System.nanoTime() - start);
+            return true;
+        } catch (IOException e) {
+            for (Hasher hasher : states.get().hashers) {
+                hasher.reset();
+            }
+            Arrays.fill(digest, (byte) 0);
+            metrics.failed();
+            return false;
+        }
+    }
+
+    // File of a single chunk is read into buffer, mapping it would cost more than reading
+    private void smallFile(FileChannel channel, byte[] digest, long now) throws IOException {
+        State state = states.get();
+        Walk.update(state.hashers, state.prefix.clear().put(LEAF).flip());
+        state.buffer.clear();
+        int count;
+        while ((count = channel.read(state.buffer)) > -1) {
+            long read = System.nanoTime();
+            metrics.read(count, read - now);
+            state.buffer.flip();
+            Walk.update(state.hashers, state.buffer);
+            state.buffer.clear();
+            now = System.nanoTime();
+            metrics.digested(now - read);
+        }
+        digest(state.hashers, digest);
+    }
+}
@@ -1,45 +1,433 @@
 package info.kgeorgiy.ja.lorents.walk;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.security.MessageDigest;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 public class Walk {
 
     // :NOTE: SIZE_OF_HASH
     private static final String nameOfAlgorithm = "SHA-1";
-    private static final int sizeOfBuffer = 1024;
-    private static final int radixOfHash = 16;
-    private static final String nullHash = "0".repeat(40);
-
-    private static BigInteger takeHashCode(Path path, MessageDigest md) {
-        try (FileInputStream inStream = new FileInputStream(path.toString())) {
-            // :NOTE: move to a const value
-            // :NOTE: bufferSize
-            byte[] data = new byte[sizeOfBuffer];
-            int byteRead;
-            while ((byteRead = inStream.read(data)) > -1) {
-                md.update(data, 0, byteRead);
-            }
-            byte[] messageDigets = md.digest();
-            BigInteger no = new BigInteger(1, messageDigets);
-            md.reset();
-            return new BigInteger(no.toString(radixOfHash), radixOfHash);
+    private static final String[] defaultAlgorithms = {nameOfAlgorithm};
+    private static final int sizeOfBuffer = 1 << 18;
+    // files of at least this size are memory-mapped and digested without copying them into a buffer
+    private static final long mapThreshold = 1 << 24;
+    private static final long sizeOfMapping = 1 << 30;
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+    private static final String USAGE = "Walk [-threads <number>] [-algorithm <name>[,<name>...]] [-cache <file>] [-recursive] [-tree] [-progress <seconds>] [-metrics <file>] <input file> <output file>";
+    // at most this many hashed lines per thread wait to be written in input order
+    private static final int WINDOW_PER_THREAD = 16;
+
+    // direct buffer of every thread, reused for all files it reads
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(sizeOfBuffer));
+
+    private final int threads;
+    private final String[] algorithms;
+    // file of hashes kept between runs, null if every file should be hashed
+    private final Path cacheFile;
+    // whether directories in input are replaced by files in them
+    private final boolean recursive;
+    // whether tree hashes are computed instead of plain ones
+    private final boolean tree;
+    // labels written before every hash in tree mode, null for plain hashes
+    private final String[] labels;
+    // period of progress reports to standard error, 0 if there should be none
+    private final int progressSeconds;
+    // file for summary of metrics, null if it should not be written
+    private final Path metricsFile;
+    private final WalkMetrics metrics = new WalkMetrics();
+
+    private Walk(int threads, String[] algorithms, Path cacheFile, boolean recursive, boolean tree,
+                 int progressSeconds, Path metricsFile) {
+        this.threads = threads;
+        this.algorithms = algorithms;
+        this.cacheFile = cacheFile;
+        this.recursive = recursive;
+        this.tree = tree;
+        this.labels = tree ? Arrays.stream(algorithms).map(TreeHash::label).toArray(String[]::new) : null;
+        this.progressSeconds = progressSeconds;
+        this.metricsFile = metricsFile;
+    }
+
+    // Feeds the same bytes to every hasher, so the file is read once for all of them
+    static void update(Hasher[] hashers, ByteBuffer buffer) {
+        int position = buffer.position();
+        for (Hasher hasher : hashers) {
+            hasher.update(buffer.position(position));
+        }
+    }
+
+    static int length(Hasher[] hashers) {
+        return Arrays.stream(hashers).mapToInt(Hasher::length).sum();
+    }
+
+    // Writes hashes of file one after another to digest, or zeros if file can not be read
+    static boolean takeHashCode(Path file, Hasher[] hashers, byte[] digest, WalkMetrics metrics) {
+        final long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long now = System.nanoTime();
+            metrics.opened(now - start);
+            long size = channel.size();
+            if (size >= mapThreshold) {
+                try {
+                    for (long position = 0; position < size; position += sizeOfMapping) {
+                        update(hashers, channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(sizeOfMapping, size - position)));
+                    }
+                } catch (InternalError e) {
+                    // access to mapped pages past the end of file truncated meanwhile
+                    throw new IOException("File was truncated while reading: " + file, e);
+                }
+                metrics.read(size, 0);
+                metrics.digested(System.nanoTime() - now);
+            } else {
+                ByteBuffer buffer = buffers.get();
+                buffer.clear();
+                int count;
+                while ((count = channel.read(buffer)) > -1) {
+                    long read = System.nanoTime();
+                    metrics.read(count, read - now);
+                    buffer.flip();
+                    update(hashers, buffer);
+                    buffer.clear();
+                    now = System.nanoTime();
+                    metrics.digested(now - read);
+                }
+            }
+            int offset = 0;
+            for (Hasher hasher : hashers) {
+                hasher.digest(digest, offset);
+                offset += hasher.length();
+            }
+            metrics.hashed(System.nanoTime() - start);
+            return true;
         } catch (IOException e) {
-            // :NOTE: new BigInteger
-            return new BigInteger(String.valueOf(0), radixOfHash);
+            // drop data of partially read file
+            for (Hasher hasher : hashers) {
+                hasher.reset();
+            }
+            Arrays.fill(digest, (byte) 0);
+            metrics.failed();
+            return false;
         }
+    }
+
+    private boolean takeHashCode(Path file, Hasher[] hashers, byte[] digest, TreeHash tree) {
+        return tree != null ? tree.hash(file, digest) : takeHashCode(file, hashers, digest, metrics);
+    }
 
+    // Path of input line, null if it is not a valid path
+    private static Path parse(String file) {
+        try {
+            return Path.of(file);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
 
+    // Takes hashes of unchanged file from cache, other files are hashed and cached,
+    // invalid path (null) gets zeros
+    private void hash(Path path, Hasher[] hashers, byte[] digest, HashCache cache, TreeHash tree) {
+        if (path == null) {
+            Arrays.fill(digest, (byte) 0);
+            metrics.failed();
+            return;
+        }
+        if (cache == null) {
+            takeHashCode(path, hashers, digest, tree);
+            return;
+        }
+        final long start = System.nanoTime();
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            Arrays.fill(digest, (byte) 0);
+            metrics.failed();
+            return;
+        } finally {
+            metrics.metadata(System.nanoTime() - start);
+        }
+        if (cache.lookup(path, attributes, digest)) {
+            metrics.cached();
+        } else if (takeHashCode(path, hashers, digest, tree)) {
+            cache.store(path, attributes, digest);
+        }
+    }
+
+    private static Hasher[] newHashers(String[] algorithms) {
+        try {
+            return Hasher.forNames(algorithms);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No such Algorithm " + e.getMessage(), e);
+        }
+    }
+
+    // Hex buffer for hashes of given lengths, every hash followed by a space
+    private static char[] hexBuffer(Hasher[] hashers) {
+        char[] hex = new char[2 * length(hashers) + hashers.length];
+        int index = 0;
+        for (Hasher hasher : hashers) {
+            index += 2 * hasher.length();
+            hex[index++] = ' ';
+        }
+        return hex;
+    }
+
+    // Writes "<hex hash> [<hex hash> ...] <path>" line, hashes are formatted in the reused hex buffer
+    // and in tree mode every hash is preceded by "<label>:"
+    private void writeLine(BufferedWriter writer, byte[] digest, char[] hex, String name) throws IOException {
+        int index = 0;
+        for (byte b : digest) {
+            if (hex[index] == ' ') {
+                index++;
+            }
+            hex[index++] = hexDigits[(b >> 4) & 0xF];
+            hex[index++] = hexDigits[b & 0xF];
+        }
+        if (labels == null) {
+            writer.write(hex);
+        } else {
+            int start = 0;
+            for (String label : labels) {
+                int end = start;
+                while (hex[end] != ' ') {
+                    end++;
+                }
+                writer.write(label);
+                writer.write(':');
+                writer.write(hex, start, end + 1 - start);
+                start = end + 1;
+            }
+        }
+        writer.write(name);
+        writer.newLine();
+    }
+
+    // Line of the reorder window, reused by every file that takes its place, so the digest is allocated once
+    private final class Slot implements Runnable {
+        private final byte[] digest;
+        private final ThreadLocal<Hasher[]> hashers;
+        private final HashCache cache;
+        private final TreeHash treeHash;
+        private Path path;
+        // name written to output: normalized path, or the input line if it is not a valid path
+        private String name;
+        private boolean done;
+        private Throwable failure;
+
+        private Slot(int length, ThreadLocal<Hasher[]> hashers, HashCache cache, TreeHash treeHash) {
+            this.digest = new byte[length];
+            this.hashers = hashers;
+            this.cache = cache;
+            this.treeHash = treeHash;
+        }
+
+        // Called by reader before the slot is submitted, previous file of the slot is already written
+        private void reset(String file) {
+            path = parse(file);
+            name = path != null ? path.toString() : file;
+            done = false;
+            failure = null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                hash(path, hashers.get(), digest, cache, treeHash);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void write(BufferedWriter writer, char[] hex) throws IOException {
+            synchronized (this) {
+                try {
+                    while (!done) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while hashing files", e);
+                }
+            }
+            if (failure != null) {
+                throw new IOException("Unable to hash file " + failure.getMessage(), failure);
+            }
+            writeLine(writer, digest, hex, name);
+        }
+    }
+
+    private void hashAll(Iterator<String> files, BufferedWriter writer, char[] hex, int length,
+                         HashCache cache, TreeHash treeHash) throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // every worker reuses its own hashers
+        final ThreadLocal<Hasher[]> digests = ThreadLocal.withInitial(() -> newHashers(algorithms));
+        // reorder buffer: lines are submitted and written in input order, reading stops while it is full
+        final Slot[] window = new Slot[threads * WINDOW_PER_THREAD];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = new Slot(length, digests, cache, treeHash);
+        }
+        long submitted = 0;
+        try {
+            for (; files.hasNext(); submitted++) {
+                final Slot slot = window[(int) (submitted % window.length)];
+                if (submitted >= window.length) {
+                    slot.write(writer, hex);
+                }
+                slot.reset(files.next());
+                pool.execute(slot);
+            }
+            for (long i = Math.max(0, submitted - window.length); i < submitted; i++) {
+                window[(int) (i % window.length)].write(writer, hex);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     public static void walk(String inputFile, String outputFile) {
+        walk(inputFile, outputFile, 1);
+    }
+
+    public static void walk(String inputFile, String outputFile, int threads) {
+        walk(inputFile, outputFile, threads, defaultAlgorithms);
+    }
+
+    /**
+     * Writes hashes of files listed in input file to output file.
+     * Every file is read once, hashes of all algorithms are written in one line, separated by spaces.
+     * @param inputFile file with list of files to hash, one per line.
+     * @param outputFile file for hashes, in the same order as input.
+     * @param threads number of threads hashing files concurrently.
+     * @param algorithms hash algorithms, see {@link Hasher#forName(String)}.
+     */
+    public static void walk(String inputFile, String outputFile, int threads, String... algorithms) {
+        new Walk(threads, algorithms, null, false, false, 0, null).run(inputFile, outputFile);
+    }
+
+    /**
+     * Recursive {@link #walk(String, String, int, String...)}: directories in input file are replaced
+     * by all files in them. Directories are listed in parallel while already found files are hashed.
+     * @param inputFile file with list of files and directories to hash, one per line.
+     * @param outputFile file for hashes, in the same order as input.
+     * @param threads number of threads listing directories and hashing files concurrently.
+     * @param algorithms hash algorithms, see {@link Hasher#forName(String)}.
+     */
+    public static void walkRecursive(String inputFile, String outputFile, int threads, String... algorithms) {
+        new Walk(threads, algorithms, null, true, false, 0, null).run(inputFile, outputFile);
+    }
+
+    /**
+     * {@link #walk(String, String, int, String...)} with tree hashes, see {@link TreeHash}.
+     * Chunks of large files are hashed concurrently. Hashes are written as {@code <algorithm>-tree:<hex>},
+     * so they can not be confused with plain hashes.
+     * @param inputFile file with list of files to hash, one per line.
+     * @param outputFile file for hashes, in the same order as input.
+     * @param threads number of threads hashing files and chunks concurrently.
+     * @param algorithms hash algorithms of chunks and nodes of the tree, see {@link Hasher#forName(String)}.
+     */
+    public static void walkTree(String inputFile, String outputFile, int threads, String... algorithms) {
+        new Walk(threads, algorithms, null, false, true, 0, null).run(inputFile, outputFile);
+    }
+
+    /**
+     * Incremental {@link #walk(String, String, int, String...)}: files with the same size, modification time
+     * and file key as in the previous run are not read, their hashes are taken from the cache file.
+     * @param inputFile file with list of files to hash, one per line.
+     * @param outputFile file for hashes, in the same order as input.
+     * @param cacheFile file of hashes kept between runs, created if it does not exist.
+     * @param threads number of threads hashing files concurrently.
+     * @param algorithms hash algorithms, see {@link Hasher#forName(String)}.
+     */
+    public static void walkCached(String inputFile, String outputFile, String cacheFile, int threads, String... algorithms) {
+        walkCached(inputFile, outputFile, cacheFile, false, false, threads, algorithms);
+    }
+
+    /**
+     * Incremental walk, optionally recursive or with tree hashes, see {@link #walkCached(String, String, String, int, String...)}
+     * and {@link #walkRecursive(String, String, int, String...)}.
+     * @param inputFile file with list of files to hash, one per line.
+     * @param outputFile file for hashes, in the same order as input.
+     * @param cacheFile file of hashes kept between runs, created if it does not exist.
+     * @param recursive whether directories in input are replaced by files in them.
+     * @param tree whether tree hashes are computed, see {@link #walkTree(String, String, int, String...)}.
+     * @param threads number of threads hashing files concurrently.
+     * @param algorithms hash algorithms, see {@link Hasher#forName(String)}.
+     */
+    public static void walkCached(String inputFile, String outputFile, String cacheFile, boolean recursive,
+                                  boolean tree, int threads, String... algorithms) {
+        final Path cache;
+        try {
+            cache = Path.of(cacheFile);
+        } catch (InvalidPathException e) {
+            System.err.println("Wrong path of file " + e.getMessage());
+            return;
+        }
+        new Walk(threads, algorithms, cache, recursive, tree, 0, null).run(inputFile, outputFile);
+    }
+
+    private HashCache loadCache(int length) {
+        if (cacheFile == null) {
+            return null;
+        }
+        try {
+            return HashCache.load(cacheFile, tree ? labels : algorithms, length);
+        } catch (IOException e) {
+            System.err.println("Unable to read cache, all files will be hashed " + e.getMessage());
+            return HashCache.empty(cacheFile, tree ? labels : algorithms, length);
+        }
+    }
+
+    private void run(String inputFile, String outputFile) {
+        ScheduledExecutorService reporter = null;
+        if (progressSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "walk-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> System.err.println(metrics.progress()),
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            hashFiles(inputFile, outputFile);
+        } finally {
+            if (reporter != null) {
+                reporter.shutdownNow();
+                System.err.println(metrics.progress());
+            }
+        }
+        if (metricsFile != null) {
+            try {
+                Files.writeString(metricsFile, metrics.summary(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Unable to write metrics " + e.getMessage());
+            }
+        }
+    }
+
+    private void hashFiles(String inputFile, String outputFile) {
         Path inputFilePath;
         Path outputFilePath;
         try {
@@ -64,18 +452,39 @@ public class Walk {
         try (BufferedReader reader = Files.newBufferedReader(inputFilePath, StandardCharsets.UTF_8);
              BufferedWriter writer = Files.newBufferedWriter(outputFilePath, StandardCharsets.UTF_8)) {
             try {
-                MessageDigest md = MessageDigest.getInstance(nameOfAlgorithm);
-                Path path;
-                String str;
-                while ((str = reader.readLine()) != null) {
-                    try {
-                        path = Path.of(str);
-                        writer.write(String.format("%040x %s", takeHashCode(path, md), path.toString()));
-                    } catch (InvalidPathException e) {
-                        // :NOTE: move to a const value
-                        writer.write(String.format("%s %s", nullHash, str));
+                Hasher[] hashers = Hasher.forNames(algorithms);
+                // digest and its hex form are reused for all files
+                byte[] digest = new byte[length(hashers)];
+                char[] hex = hexBuffer(hashers);
+                HashCache cache = loadCache(digest.length);
+                Iterator<String> files = reader.lines().iterator();
+                // lists directories and hashes chunks of large files in tree mode
+                ForkJoinPool forkJoin = recursive || tree ? new ForkJoinPool(threads) : null;
+                if (recursive) {
+                    files = new FileTree(files, forkJoin);
+                }
+                try {
+                    TreeHash treeHash = tree ? new TreeHash(algorithms, forkJoin, metrics) : null;
+                    if (threads > 1) {
+                        hashAll(files, writer, hex, digest.length, cache, treeHash);
+                    } else {
+                        while (files.hasNext()) {
+                            String file = files.next();
+                            Path path = parse(file);
+                            hash(path, hashers, digest, cache, treeHash);
+                            writeLine(writer, digest, hex, path != null ? path.toString() : file);
+                        }
                     }
-                    writer.newLine();
+                } catch (UncheckedIOException e) {
+                    // failed reading of input file
+                    throw e.getCause();
+                } finally {
+                    if (forkJoin != null) {
+                        forkJoin.shutdownNow();
+                    }
+                }
+                if (cache != null) {
+                    cache.flush();
                 }
             } catch (IOException e) {
                 System.err.println("IOException " + e.getMessage());
@@ -95,12 +504,77 @@ public class Walk {
     }
 
     public static void main(String[] args) {
-        if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
+        if (args == null || args.length < 2 || Arrays.stream(args).anyMatch(Objects::isNull)) {
             // :NOTE: Usage <> <>
-            System.err.println("Invalid arguments, expected: <input file> <output file>");
+            System.err.println("Invalid arguments, expected: " + USAGE);
+            return;
+        }
+        int threads = 1;
+        String[] algorithms = defaultAlgorithms;
+        String cache = null;
+        boolean recursive = false;
+        boolean tree = false;
+        int progress = 0;
+        String metrics = null;
+        for (int i = 0; i < args.length - 2; i++) {
+            if (args[i].equals("-recursive")) {
+                recursive = true;
+                continue;
+            }
+            if (args[i].equals("-tree")) {
+                tree = true;
+                continue;
+            }
+            if (i + 1 == args.length - 2) {
+                System.err.println("Invalid arguments, expected: " + USAGE);
+                return;
+            }
+            switch (args[i++]) {
+                case "-threads":
+                    try {
+                        threads = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Incorrect number of threads " + e.getMessage());
+                        return;
+                    }
+                    if (threads <= 0) {
+                        System.err.println("Number of threads should be greater than zero");
+                        return;
+                    }
+                    break;
+                case "-algorithm":
+                    algorithms = args[i].split(",");
+                    break;
+                case "-cache":
+                    cache = args[i];
+                    break;
+                case "-progress":
+                    try {
+                        progress = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Incorrect period of progress " + e.getMessage());
+                        return;
+                    }
+                    break;
+                case "-metrics":
+                    metrics = args[i];
+                    break;
+                default:
+                    System.err.println("Invalid arguments, expected: " + USAGE);
+                    return;
+            }
+        }
+        final Path cacheFile;
+        final Path metricsFile;
+        try {
+            cacheFile = cache != null ? Path.of(cache) : null;
+            metricsFile = metrics != null ? Path.of(metrics) : null;
+        } catch (InvalidPathException e) {
+            System.err.println("Wrong path of file " + e.getMessage());
             return;
         }
-        walk(args[0], args[1]);
+        new Walk(threads, algorithms, cacheFile, recursive, tree, progress, metricsFile)
+                .run(args[args.length - 2], args[args.length - 1]);
     }
 }
 
@@ -0,0 +1,130 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Benchmark of hash algorithms supported by {@link Walk}.
+ * Prints throughput of every algorithm alone and of all of them in one pass over a file,
+ * read from page cache and directly from disk, bypassing the cache.
+ */
+public class WalkBenchmark {
+
+    private static final String USAGE = "WalkBenchmark [sizeMB [rounds [directory]]]";
+    private static final String[][] ALGORITHMS = {
+            {"CRC32C"}, {"XXH64"}, {"MD5"}, {"SHA-1"}, {"SHA-256"},
+            {"CRC32C", "XXH64", "SHA-1", "SHA-256"}
+    };
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Keeps hashes reachable, so they are not optimized away
+    private static volatile byte[] sink;
+
+    private static double cached(Path file, Hasher[] hashers, int rounds) {
+        WalkMetrics metrics = new WalkMetrics();
+        byte[] digest = new byte[Walk.length(hashers)];
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            Walk.takeHashCode(file, hashers, digest, metrics);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        sink = digest;
+        return best;
+    }
+
+    // Reads file with O_DIRECT, so that every round goes to the disk
+    private static double uncached(Path file, Hasher[] hashers, int rounds) throws IOException {
+        int block = Math.toIntExact(Files.getFileStore(file).getBlockSize());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE + block).alignedSlice(block);
+        byte[] digest = new byte[Walk.length(hashers)];
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, ExtendedOpenOption.DIRECT)) {
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    Walk.update(hashers, buffer);
+                    buffer.clear();
+                }
+            }
+            int offset = 0;
+            for (Hasher hasher : hashers) {
+                hasher.digest(digest, offset);
+                offset += hasher.length();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        sink = digest;
+        return best;
+    }
+
+    private static int getArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments. Usage: WalkBenchmark [sizeMB [rounds [directory]]]
+     */
+    public static void main(String[] args) {
+        final int size;
+        final int rounds;
+        try {
+            size = getArg(args, 0, 256);
+            rounds = getArg(args, 1, 5);
+        } catch (NumberFormatException e) {
+            System.err.println("Incorrect arguments, use: " + USAGE);
+            return;
+        }
+        // temporary file should be on a real disk, tmpfs does not support direct reads
+        final Path directory = Path.of(args.length > 2 ? args[2] : ".");
+
+        Path file = null;
+        try {
+            file = Files.createTempFile(directory, "walk", ".bin");
+            final Random random = new Random(4875043285743285204L);
+            final byte[] chunk = new byte[BUFFER_SIZE];
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int i = 0; i < size; i++) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+
+            for (String[] algorithms : ALGORITHMS) {
+                final Hasher[] hashers = Hasher.forNames(algorithms);
+                final String name = String.join(",", algorithms);
+                final double mb = (double) size * 1_000_000_000;
+                System.out.printf("%-28s cached %9.1f MB/s", name, mb / cached(file, hashers, rounds));
+                try {
+                    System.out.printf("    uncached %9.1f MB/s%n", mb / uncached(file, hashers, rounds));
+                } catch (IOException | UnsupportedOperationException e) {
+                    System.out.printf("    uncached reads are not supported: %s%n", e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to create test file " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("No such Algorithm " + e.getMessage());
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Unable to delete test file " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one {@link Walk} run.
+ * Hashing threads only add to striped counters, all aggregation happens when progress or summary is requested.
+ * Time of memory-mapped files is counted as digest time, since they are read by page faults while digesting.
+ */
+class WalkMetrics {
+
+    private static final int BUCKETS = Long.SIZE;
+
+    private final long started = System.nanoTime();
+    private final LongAdder hashedFiles = new LongAdder();
+    private final LongAdder cachedFiles = new LongAdder();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder metadataNanos = new LongAdder();
+    private final LongAdder openNanos = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder digestNanos = new LongAdder();
+    // log2 histogram of time from opening to hash of a file
+    private final AtomicLongArray hashTime = new AtomicLongArray(BUCKETS);
+
+    void metadata(long nanos) {
+        metadataNanos.add(nanos);
+    }
+
+    void opened(long nanos) {
+        openNanos.add(nanos);
+    }
+
+    void read(long count, long nanos) {
+        bytes.add(count);
+        readNanos.add(nanos);
+    }
+
+    void digested(long nanos) {
+        digestNanos.add(nanos);
+    }
+
+    void hashed(long nanos) {
+        hashedFiles.increment();
+        hashTime.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+    }
+
+    void cached() {
+        cachedFiles.increment();
+    }
+
+    void failed() {
+        failedFiles.increment();
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private long files() {
+        return hashedFiles.sum() + cachedFiles.sum() + failedFiles.sum();
+    }
+
+    private static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= percentile * total) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    private long[] histogram() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = hashTime.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Human-readable state of the run.
+     * @return one line of progress.
+     */
+    String progress() {
+        double elapsed = seconds(Math.max(System.nanoTime() - started, 1));
+        return String.format("%.0fs: %d files (%d cached, %d failed), %.1f MB, %.1f files/s, %.1f MB/s, "
+                        + "time: metadata %.1fs, open %.1fs, read %.1fs, digest %.1fs",
+                elapsed, files(), cachedFiles.sum(), failedFiles.sum(), bytes.sum() / 1e6,
+                files() / elapsed, bytes.sum() / 1e6 / elapsed,
+                seconds(metadataNanos.sum()), seconds(openNanos.sum()), seconds(readNanos.sum()), seconds(digestNanos.sum()));
+    }
+
+    /**
+     * Machine-readable summary of the run, in JSON.
+     * Times are total over all threads, so they may exceed elapsed time.
+     * Histogram bucket {@code i} counts files hashed in {@code [2^i, 2^(i+1))} nanoseconds.
+     * @return JSON object.
+     */
+    String summary() {
+        long elapsed = Math.max(System.nanoTime() - started, 1);
+        long[] histogram = histogram();
+        StringBuilder buckets = new StringBuilder();
+        for (int i = 0; i < histogram.length; i++) {
+            buckets.append(i == 0 ? "" : ", ").append(histogram[i]);
+        }
+        // JSON needs dots in numbers whatever the default locale is
+        return String.format(Locale.ROOT, "{%n"
+                        + "  \"elapsedNanos\": %d,%n"
+                        + "  \"files\": %d,%n"
+                        + "  \"hashedFiles\": %d,%n"
+                        + "  \"cachedFiles\": %d,%n"
+                        + "  \"failedFiles\": %d,%n"
+                        + "  \"bytes\": %d,%n"
+                        + "  \"filesPerSecond\": %.3f,%n"
+                        + "  \"bytesPerSecond\": %.3f,%n"
+                        + "  \"metadataNanos\": %d,%n"
+                        + "  \"openNanos\": %d,%n"
+                        + "  \"readNanos\": %d,%n"
+                        + "  \"digestNanos\": %d,%n"
+                        + "  \"hashTimeP50Nanos\": %d,%n"
+                        + "  \"hashTimeP99Nanos\": %d,%n"
+                        + "  \"hashTimeHistogram\": [%s]%n"
+                        + "}%n",
+                elapsed, files(), hashedFiles.sum(), cachedFiles.sum(), failedFiles.sum(), bytes.sum(),
+                files() * 1e9 / elapsed, bytes.sum() * 1e9 / elapsed,
+                metadataNanos.sum(), openNanos.sum(), readNanos.sum(), digestNanos.sum(),
+                percentile(histogram, 0.5), percentile(histogram, 0.99), buckets);
+    }
+}
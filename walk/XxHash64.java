@@ -0,0 +1,123 @@
+package info.kgeorgiy.ja.lorents.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming xxHash64 with zero seed, a fast non-cryptographic hash for change detection.
+ * Hash value is written big-endian, as printed by {@code xxhsum}.
+ */
+class XxHash64 implements Hasher {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+    // tail of data that does not fill a whole stripe yet
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    XxHash64() {
+        reset();
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(long hash, long acc) {
+        return (hash ^ round(0, acc)) * PRIME1 + PRIME4;
+    }
+
+    private void stripe(ByteBuffer data, int index) {
+        v1 = round(v1, data.getLong(index));
+        v2 = round(v2, data.getLong(index + 8));
+        v3 = round(v3, data.getLong(index + 16));
+        v4 = round(v4, data.getLong(index + 24));
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        total += data.remaining();
+        int index = 0;
+        int limit = data.limit();
+        if (pending.position() > 0) {
+            int count = Math.min(pending.remaining(), limit);
+            pending.put(data.limit(count));
+            data.limit(limit);
+            index = count;
+            if (pending.hasRemaining()) {
+                buffer.position(buffer.limit());
+                return;
+            }
+            stripe(pending, 0);
+            pending.clear();
+        }
+        for (; index + STRIPE <= limit; index += STRIPE) {
+            stripe(data, index);
+        }
+        pending.put(data.position(index));
+        buffer.position(buffer.limit());
+    }
+
+    @Override
+    public int length() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public void digest(byte[] hash, int offset) {
+        long h;
+        if (total >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += total;
+
+        int index = 0;
+        int size = pending.position();
+        for (; index + Long.BYTES <= size; index += Long.BYTES) {
+            h = Long.rotateLeft(h ^ round(0, pending.getLong(index)), 27) * PRIME1 + PRIME4;
+        }
+        if (index + Integer.BYTES <= size) {
+            h = Long.rotateLeft(h ^ (Integer.toUnsignedLong(pending.getInt(index)) * PRIME1), 23) * PRIME2 + PRIME3;
+            index += Integer.BYTES;
+        }
+        for (; index < size; index++) {
+            h = Long.rotateLeft(h ^ ((pending.get(index) & 0xFF) * PRIME5), 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash[offset + i] = (byte) (h >>> (8 * (Long.BYTES - 1 - i)));
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        total = 0;
+        pending.clear();
+    }
+}